@@ -0,0 +1,177 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.data.CommentGeneration;
+import com.google.sps.filters.CompressionFilter;
+import com.google.sps.filters.ConcurrencyLimitFilter;
+import com.google.sps.filters.MetricsFilter;
+import com.google.sps.servlets.BulkDataServlet;
+import com.google.sps.servlets.CommentStreamServlet;
+import com.google.sps.servlets.DataServlet;
+import com.google.sps.servlets.DeleteDataServlet;
+import com.google.sps.servlets.LoginServlet;
+import com.google.sps.servlets.MetricsServlet;
+import com.google.sps.servlets.PurgeStatusServlet;
+import java.util.EnumSet;
+import java.util.concurrent.Executors;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.http.HttpServlet;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Runs the portfolio servlets in an embedded Jetty against the App Engine local service stubs,
+ * either on a fixed pool of platform threads or with every request on its own virtual thread.
+ * {@code /batch} is left out: it fans out on App Engine request threads, which the SDK cannot
+ * create on this JDK.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.google.sps.benchmarks.LocalServer \
+ *     --virtual-threads --port=8080 --comments=1000 --latency-millis=20
+ * </pre>
+ */
+public final class LocalServer {
+
+  private final LocalServiceTestHelper helper;
+  private final Server server;
+
+  private LocalServer(LocalServiceTestHelper helper, Server server) {
+    this.helper = helper;
+    this.server = server;
+  }
+
+  /**
+   * Starts the stubs, seeds {@code comments} comments, adds {@code latencyMillis} to every API call
+   * and serves the app on {@code port}, or on a free port if it is zero. Without virtual threads,
+   * requests are limited to {@code maxThreads} platform threads.
+   */
+  public static LocalServer start(int port, boolean virtualThreads, int maxThreads, int comments,
+      long latencyMillis) throws Exception {
+    LocalServiceTestHelper helper = new LocalServiceTestHelper(
+        new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig(),
+        new LocalUserServiceTestConfig());
+    helper.setUp();
+    CommentSeeder.seed(comments, CommentGeneration.current());
+    LatencyInjectingDelegate.install(latencyMillis);
+    // Jetty flushes responses as they are written, so the live comment stream can be served
+    System.setProperty("comments.stream", "true");
+
+    QueuedThreadPool threads = new QueuedThreadPool(maxThreads);
+    if (virtualThreads) {
+      threads.setVirtualThreadsExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+    Server server = new Server(threads);
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(port);
+    server.addConnector(connector);
+    server.setHandler(newContext(ApiProxy.getCurrentEnvironment()));
+    server.start();
+    return new LocalServer(helper, server);
+  }
+
+  public int port() {
+    return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+  }
+
+  public void stop() throws Exception {
+    server.stop();
+    helper.tearDown();
+  }
+
+  /*
+   * Registers the servlets and filters the way their annotations do. The stubs keep their
+   * environment in a thread local of the thread that set them up, so every request thread is
+   * given that environment first.
+   */
+  private static ServletContextHandler newContext(ApiProxy.Environment environment) {
+    ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+    Filter withEnvironment = (request, response, chain) -> {
+      ApiProxy.setEnvironmentForCurrentThread(environment);
+      chain.doFilter(request, response);
+    };
+    addFilter(context, withEnvironment, "/*");
+    MetricsFilter metrics = new MetricsFilter();
+    ConcurrencyLimitFilter concurrencyLimit = new ConcurrencyLimitFilter();
+    for (String path : new String[] {"/data", "/login", "/delete-data", "/delete-data/status",
+        "/bulk-data"}) {
+      addFilter(context, metrics, path);
+      addFilter(context, concurrencyLimit, path);
+    }
+    CompressionFilter compression = new CompressionFilter();
+    for (String path : new String[] {"/data", "/login"}) {
+      addFilter(context, compression, path);
+    }
+
+    addServlet(context, new DataServlet(), "/data");
+    addServlet(context, new LoginServlet(), "/login");
+    addServlet(context, new DeleteDataServlet(), "/delete-data");
+    addServlet(context, new PurgeStatusServlet(), "/delete-data/status");
+    addServlet(context, new BulkDataServlet(), "/bulk-data");
+    addServlet(context, new MetricsServlet(), "/metrics");
+    addServlet(context, new CommentStreamServlet(), "/comments-stream");
+    return context;
+  }
+
+  private static void addFilter(ServletContextHandler context, Filter filter, String path) {
+    FilterHolder holder = new FilterHolder(filter);
+    holder.setAsyncSupported(true);
+    context.addFilter(holder, path, EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC));
+  }
+
+  private static void addServlet(ServletContextHandler context, HttpServlet servlet, String path) {
+    ServletHolder holder = new ServletHolder(servlet);
+    holder.setAsyncSupported(true);
+    context.addServlet(holder, path);
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean virtualThreads = false;
+    int port = 8080;
+    int maxThreads = 200;
+    int comments = 1000;
+    long latencyMillis = 0;
+    for (String arg : args) {
+      if (arg.equals("--virtual-threads")) {
+        virtualThreads = true;
+      } else if (arg.startsWith("--port=")) {
+        port = Integer.parseInt(arg.substring("--port=".length()));
+      } else if (arg.startsWith("--max-threads=")) {
+        maxThreads = Integer.parseInt(arg.substring("--max-threads=".length()));
+      } else if (arg.startsWith("--comments=")) {
+        comments = Integer.parseInt(arg.substring("--comments=".length()));
+      } else if (arg.startsWith("--latency-millis=")) {
+        latencyMillis = Long.parseLong(arg.substring("--latency-millis=".length()));
+      } else {
+        throw new IllegalArgumentException("Unknown argument " + arg);
+      }
+    }
+    LocalServer server = start(port, virtualThreads, maxThreads, comments, latencyMillis);
+    System.out.println("Serving on http://localhost:" + server.port()
+        + (virtualThreads ? " with virtual threads" : " with " + maxThreads + " threads"));
+    server.server.join();
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.benchmarks;
+
+import com.google.sps.metrics.LatencyHistogram;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test comparing a fixed platform thread pool against virtual threads. For each mode it
+ * starts a {@link LocalServer} with latency injected into every API call, keeps
+ * {@code --concurrency} clients requesting the first comment page for {@code --seconds}, and
+ * reports throughput and latency. With a pool of {@code --max-threads}, throughput stops growing
+ * once every thread is blocked on the stubs; with virtual threads it keeps scaling with the
+ * number of clients.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.google.sps.benchmarks.VirtualThreadLoadTest \
+ *     --concurrency=200 --max-threads=32 --latency-millis=20 --seconds=10
+ * </pre>
+ */
+public final class VirtualThreadLoadTest {
+
+  private VirtualThreadLoadTest() {
+    // Disallow instances.
+  }
+
+  public static void main(String[] args) throws Exception {
+    int concurrency = 200;
+    int maxThreads = 32;
+    long latencyMillis = 20;
+    int seconds = 10;
+    for (String arg : args) {
+      if (arg.startsWith("--concurrency=")) {
+        concurrency = Integer.parseInt(arg.substring("--concurrency=".length()));
+      } else if (arg.startsWith("--max-threads=")) {
+        maxThreads = Integer.parseInt(arg.substring("--max-threads=".length()));
+      } else if (arg.startsWith("--latency-millis=")) {
+        latencyMillis = Long.parseLong(arg.substring("--latency-millis=".length()));
+      } else if (arg.startsWith("--seconds=")) {
+        seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+      } else {
+        throw new IllegalArgumentException("Unknown argument " + arg);
+      }
+    }
+
+    System.out.printf("%d clients, %d ms per API call, %d s per mode%n",
+        concurrency, latencyMillis, seconds);
+    System.out.printf("%-24s %12s %10s %10s %8s%n", "mode", "requests/s", "p50 ms", "p99 ms",
+        "errors");
+    for (boolean virtualThreads : new boolean[] {false, true}) {
+      LocalServer server = LocalServer.start(0, virtualThreads, maxThreads, 1000, latencyMillis);
+      try {
+        String mode = virtualThreads ? "virtual threads" : maxThreads + " platform threads";
+        run(mode, server.port(), concurrency, seconds);
+      } finally {
+        server.stop();
+      }
+    }
+  }
+
+  private static void run(String mode, int port, int concurrency, int seconds)
+      throws InterruptedException {
+    HttpClient client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(10))
+        .build();
+    HttpRequest request = HttpRequest.newBuilder(
+        URI.create("http://localhost:" + port + "/data?limit=10")).build();
+
+    // Warm the servlets and the page cache before measuring
+    long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    load(client, request, concurrency, warmupEnd, new LatencyHistogram(), new LongAdder());
+
+    LatencyHistogram latency = new LatencyHistogram();
+    LongAdder errors = new LongAdder();
+    long start = System.nanoTime();
+    load(client, request, concurrency, start + TimeUnit.SECONDS.toNanos(seconds), latency, errors);
+    double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.printf("%-24s %12.0f %10.1f %10.1f %8d%n", mode, latency.count() / elapsedSeconds,
+        latency.quantileSeconds(0.5) * 1000, latency.quantileSeconds(0.99) * 1000, errors.sum());
+  }
+
+  /*
+   * Runs concurrency clients on virtual threads, each sending its next request as soon as the
+   * previous one is answered, until the deadline.
+   */
+  private static void load(HttpClient client, HttpRequest request, int concurrency,
+      long deadlineNanos, LatencyHistogram latency, LongAdder errors) throws InterruptedException {
+    List<Thread> clients = new ArrayList<>(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      clients.add(Thread.ofVirtual().start(() -> {
+        while (System.nanoTime() < deadlineNanos) {
+          long sent = System.nanoTime();
+          try {
+            HttpResponse<byte[]> response =
+                client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == 200) {
+              latency.record(System.nanoTime() - sent);
+            } else {
+              errors.increment();
+              // Back off when shed, as a browser retrying a failed fetch would
+              long retryAfter = response.headers().firstValueAsLong("Retry-After").orElse(0);
+              Thread.sleep(TimeUnit.SECONDS.toMillis(retryAfter));
+            }
+          } catch (Exception e) {
+            errors.increment();
+          }
+        }
+      }));
+    }
+    for (Thread thread : clients) {
+      thread.join();
+    }
+  }
+}
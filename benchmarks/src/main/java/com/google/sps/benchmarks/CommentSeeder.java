@@ -0,0 +1,59 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills the local Datastore with comments shaped like the ones DataServlet stores.
+ */
+final class CommentSeeder {
+
+  // Datastore accepts at most 500 entities in a single put
+  private static final int BATCH_SIZE = 500;
+
+  private CommentSeeder() {
+    // Disallow instances.
+  }
+
+  /**
+   * Stores {@code count} comments in {@code generation}, with timestamps counting up from zero so
+   * that every benchmark run sees the same feed order.
+   */
+  static void seed(int count, long generation) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    List<Entity> batch = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < count; i++) {
+      Entity comment = new Entity("Comment");
+      comment.setProperty("name", "Visitor " + (i % 500));
+      comment.setProperty("message", "Comment number " + i + " about the portfolio page.");
+      comment.setProperty("timestamp", (long) i);
+      comment.setProperty("generation", generation);
+      batch.add(comment);
+      if (batch.size() == BATCH_SIZE) {
+        datastore.put(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      datastore.put(batch);
+    }
+  }
+}
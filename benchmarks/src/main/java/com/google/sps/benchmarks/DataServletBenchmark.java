@@ -0,0 +1,121 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.CommentGeneration;
+import com.google.sps.data.CommentVersion;
+import com.google.sps.servlets.DataServlet;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures DataServlet against a local Datastore holding {@code comments} comments: reading the
+ * first page of the feed with and without the per-instance page cache, and posting a comment.
+ * Posts add to the seeded comments, so the feed grows slightly over a run. {@code latencyMillis}
+ * adds that much to every API call, e.g. {@code -p latencyMillis=5}. Run with {@code -prof gc}
+ * to see the allocation per request as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DataServletBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  private int comments;
+
+  @Param({"0"})
+  private long latencyMillis;
+
+  private LocalServiceTestHelper helper;
+  private DataServlet servlet;
+  private HttpServletRequest firstPage;
+  private ServletHarness.Response response;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    helper = new LocalServiceTestHelper(
+        new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+    helper.setUp();
+    CommentSeeder.seed(comments, CommentGeneration.current());
+    LatencyInjectingDelegate.install(latencyMillis);
+
+    servlet = new DataServlet();
+    Map<String, String> parameters = new HashMap<>();
+    parameters.put("limit", "10");
+    firstPage = ServletHarness.get(parameters);
+    response = new ServletHarness.Response();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /** Moves the comment version on before each call, so that every read misses the page cache. */
+  @State(Scope.Thread)
+  public static class Uncached {
+    @Setup(Level.Invocation)
+    public void invalidate() {
+      CommentVersion.bump();
+    }
+  }
+
+  @Benchmark
+  public byte[] getFirstPage(Uncached uncached) throws IOException {
+    response.reset();
+    servlet.doGet(firstPage, response.servletResponse());
+    return response.body();
+  }
+
+  @Benchmark
+  public byte[] getFirstPageCached() throws IOException {
+    response.reset();
+    servlet.doGet(firstPage, response.servletResponse());
+    return response.body();
+  }
+
+  @Benchmark
+  public int post() throws IOException {
+    response.reset();
+    Map<String, String> parameters = new HashMap<>();
+    parameters.put("name-input", "Visitor");
+    parameters.put("text-input", "A comment posted by the benchmark.");
+    servlet.doPost(ServletHarness.post(parameters, response), response.servletResponse());
+    return response.status();
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonParser;
+import com.google.sps.data.BatchDeleter;
+import com.google.sps.data.CommentGeneration;
+import com.google.sps.data.PurgeJob;
+import com.google.sps.servlets.DeleteDataServlet;
+import com.google.sps.servlets.PurgeStatusServlet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures deleting every comment. {@code deleteAll} is the /delete-data request, which hides the
+ * comments straight away and leaves the deletes to the background sweeper; {@code purge} is the
+ * batched delete the sweeper runs, done in one go without its pacing. Comments are seeded again
+ * before every call, and the sweeper is allowed to finish after it, so large sizes take a while.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DeleteAllBenchmark {
+
+  // How often the sweeper's progress is checked while waiting for it
+  private static final long SWEEP_POLL_MILLIS = 100;
+
+  @Param({"1000", "100000", "1000000"})
+  private int comments;
+
+  @Param({"0"})
+  private long latencyMillis;
+
+  private LocalServiceTestHelper helper;
+  private DeleteDataServlet deleteServlet;
+  private PurgeStatusServlet statusServlet;
+  private HttpServletRequest request;
+  private ServletHarness.Response response;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    helper = new LocalServiceTestHelper(
+        new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+    helper.setUp();
+    LatencyInjectingDelegate.install(latencyMillis);
+
+    deleteServlet = new DeleteDataServlet();
+    statusServlet = new PurgeStatusServlet();
+    request = ServletHarness.get(Collections.emptyMap());
+    response = new ServletHarness.Response();
+  }
+
+  @Setup(Level.Invocation)
+  public void seed() {
+    CommentSeeder.seed(comments, CommentGeneration.current());
+  }
+
+  @TearDown(Level.Invocation)
+  public void awaitSweep() throws IOException, InterruptedException {
+    while (PurgeJob.STATE_RUNNING.equals(sweepState())) {
+      Thread.sleep(SWEEP_POLL_MILLIS);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public int deleteAll() throws IOException {
+    response.reset();
+    deleteServlet.doPost(request, response.servletResponse());
+    return response.status();
+  }
+
+  @Benchmark
+  public long purge() {
+    Query keys = new Query("Comment").setKeysOnly();
+    Iterable<Entity> results = DatastoreServiceFactory.getDatastoreService().prepare(keys)
+        .asIterable(FetchOptions.Builder.withChunkSize(BatchDeleter.BATCH_SIZE));
+    return BatchDeleter.deleteAll(results);
+  }
+
+  private String sweepState() throws IOException {
+    response.reset();
+    statusServlet.doGet(request, response.servletResponse());
+    String json = new String(response.body(), StandardCharsets.UTF_8);
+    return new JsonParser().parse(json).getAsJsonObject().get("state").getAsString();
+  }
+}
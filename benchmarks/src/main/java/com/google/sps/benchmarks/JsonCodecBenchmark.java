@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.Comment;
+import com.google.sps.data.JsonCodec;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares encoding a page of comments with the shared {@link JsonCodec} against reflection-based
+ * Gson, both with a new Gson per call, as the servlets used to do, and with one shared instance.
+ * Run with {@code -prof gc} to see the allocation per page as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+  private static final Gson SHARED_GSON = new Gson();
+  private static final Type COMMENT_LIST = new TypeToken<List<Comment>>() {}.getType();
+
+  @Param({"10", "100"})
+  private int pageSize;
+
+  private LocalServiceTestHelper helper;
+  private List<Entity> entities;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+    helper.setUp();
+    entities = new ArrayList<>(pageSize);
+    for (int i = 0; i < pageSize; i++) {
+      Entity entity = new Entity("Comment");
+      entity.setProperty("name", "Visitor " + i);
+      entity.setProperty("message", "Comment number " + i + " says hello, \"world\" & all");
+      entity.setProperty("timestamp", 1_580_000_000_000L + i);
+      entities.add(entity);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public String encodeReflectiveNewGson() {
+    return new Gson().toJson(toComments(entities), COMMENT_LIST);
+  }
+
+  @Benchmark
+  public String encodeReflectiveSharedGson() {
+    return SHARED_GSON.toJson(toComments(entities), COMMENT_LIST);
+  }
+
+  @Benchmark
+  public String encodeCodec() {
+    return JsonCodec.GSON.toJson(toComments(entities), COMMENT_LIST);
+  }
+
+  @Benchmark
+  public String encodeCodecStreaming() throws IOException {
+    StringWriter out = new StringWriter();
+    try (JsonWriter writer = new JsonWriter(out)) {
+      writer.beginArray();
+      for (Entity entity : entities) {
+        JsonCodec.COMMENT.write(writer, Comment.fromEntity(entity));
+      }
+      writer.endArray();
+    }
+    return out.toString();
+  }
+
+  private static List<Comment> toComments(List<Entity> entities) {
+    List<Comment> comments = new ArrayList<>(entities.size());
+    for (Entity entity : entities) {
+      comments.add(Comment.fromEntity(entity));
+    }
+    return comments;
+  }
+}
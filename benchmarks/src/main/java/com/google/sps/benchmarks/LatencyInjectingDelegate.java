@@ -0,0 +1,146 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.benchmarks;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.ApiConfig;
+import com.google.apphosting.api.ApiProxy.Delegate;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.apphosting.api.ApiProxy.LogRecord;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Wraps the local service stubs so that every API call takes at least a fixed extra time, roughly
+ * like the network round trip to the production services. Synchronous calls sleep before they
+ * run; asynchronous calls return straight away and only become done once the delay has passed,
+ * so overlapping them still pays off the way it does in production.
+ */
+final class LatencyInjectingDelegate implements Delegate<Environment> {
+
+  private final Delegate<Environment> delegate;
+  private final long latencyNanos;
+
+  private LatencyInjectingDelegate(Delegate<Environment> delegate, long latencyMillis) {
+    this.delegate = delegate;
+    this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+  }
+
+  /**
+   * Adds {@code latencyMillis} to every API call made from now on. Call after
+   * {@code LocalServiceTestHelper.setUp()}, which installs the stubs being wrapped. Does nothing
+   * when {@code latencyMillis} is zero.
+   */
+  @SuppressWarnings("unchecked")
+  static void install(long latencyMillis) {
+    if (latencyMillis > 0) {
+      ApiProxy.setDelegate(
+          new LatencyInjectingDelegate(ApiProxy.getDelegate(), latencyMillis));
+    }
+  }
+
+  @Override
+  public byte[] makeSyncCall(Environment environment, String packageName, String methodName,
+      byte[] request) {
+    sleepUntil(System.nanoTime() + latencyNanos);
+    return delegate.makeSyncCall(environment, packageName, methodName, request);
+  }
+
+  @Override
+  public Future<byte[]> makeAsyncCall(Environment environment, String packageName,
+      String methodName, byte[] request, ApiConfig apiConfig) {
+    Future<byte[]> result =
+        delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+    return new DelayedFuture(result, System.nanoTime() + latencyNanos);
+  }
+
+  @Override
+  public void log(Environment environment, LogRecord record) {
+    delegate.log(environment, record);
+  }
+
+  @Override
+  public void flushLogs(Environment environment) {
+    delegate.flushLogs(environment);
+  }
+
+  @Override
+  public List<Thread> getRequestThreads(Environment environment) {
+    return delegate.getRequestThreads(environment);
+  }
+
+  private static void sleepUntil(long deadlineNanos) {
+    long remaining = deadlineNanos - System.nanoTime();
+    while (remaining > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      remaining = deadlineNanos - System.nanoTime();
+    }
+  }
+
+  /** A call result that is not available before its deadline. */
+  private static final class DelayedFuture implements Future<byte[]> {
+    private final Future<byte[]> result;
+    private final long deadlineNanos;
+
+    DelayedFuture(Future<byte[]> result, long deadlineNanos) {
+      this.result = result;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return result.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return result.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return System.nanoTime() >= deadlineNanos && result.isDone();
+    }
+
+    @Override
+    public byte[] get() throws InterruptedException, ExecutionException {
+      sleepUntil(deadlineNanos);
+      return result.get();
+    }
+
+    @Override
+    public byte[] get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      long timeoutNanos = unit.toNanos(timeout);
+      if (deadlineNanos - System.nanoTime() > timeoutNanos) {
+        TimeUnit.NANOSECONDS.sleep(timeoutNanos);
+        throw new TimeoutException();
+      }
+      long start = System.nanoTime();
+      sleepUntil(deadlineNanos);
+      return result.get(Math.max(0, timeoutNanos - (System.nanoTime() - start)),
+          TimeUnit.NANOSECONDS);
+    }
+  }
+}
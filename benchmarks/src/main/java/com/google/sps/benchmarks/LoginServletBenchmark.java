@@ -0,0 +1,109 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.gson.Gson;
+import com.google.sps.servlets.LoginServlet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares LoginServlet, which reuses pre-encoded responses, against building the response per
+ * request with createLoginURL/createLogoutURL, a HashMap and a new Gson as it used to. Run with
+ * {@code -prof gc} to see the allocation per request as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginServletBenchmark {
+
+  @Param({"false", "true"})
+  private boolean loggedIn;
+
+  private LocalServiceTestHelper helper;
+  private LoginServlet servlet;
+  private HttpServletRequest request;
+  private ServletHarness.Response response;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    helper = new LocalServiceTestHelper(new LocalUserServiceTestConfig())
+        .setEnvIsLoggedIn(loggedIn)
+        .setEnvEmail("visitor@example.com")
+        .setEnvAuthDomain("example.com");
+    helper.setUp();
+    servlet = new LoginServlet();
+    request = ServletHarness.get(Collections.emptyMap());
+    response = new ServletHarness.Response();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public byte[] precomputed() throws IOException {
+    response.reset();
+    servlet.doGet(request, response.servletResponse());
+    return response.body();
+  }
+
+  @Benchmark
+  public byte[] perRequest() throws IOException {
+    response.reset();
+    UserService userService = UserServiceFactory.getUserService();
+    String url;
+    String status;
+    if (userService.isUserLoggedIn()) {
+      url = userService.createLogoutURL("/index.html");
+      status = "Logout";
+    } else {
+      url = userService.createLoginURL("/index.html");
+      status = "Login";
+    }
+    HashMap<String, String> loginStatus = new HashMap<String, String>();
+    loginStatus.put("url", url);
+    loginStatus.put("status", status);
+    byte[] json = new Gson().toJson(loginStatus).getBytes(StandardCharsets.UTF_8);
+    response.servletResponse().getOutputStream().write(json);
+    return response.body();
+  }
+}
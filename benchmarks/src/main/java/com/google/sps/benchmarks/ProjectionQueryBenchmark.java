@@ -0,0 +1,138 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares reading the comment feed as whole entities against reading it with the projection query
+ * that DataServlet uses when {@code comments.useProjection} is set. Comments are seeded with the
+ * extra properties we expect to add (user ids, moderation scores, rendered text) so that the full
+ * entity decode pays for them the way it will in production.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProjectionQueryBenchmark {
+
+  // Datastore accepts at most 500 entities in a single put
+  private static final int BATCH_SIZE = 500;
+
+  @Param({"10000", "50000"})
+  private int comments;
+
+  private LocalServiceTestHelper helper;
+  private DatastoreService datastore;
+
+  @Setup(Level.Trial)
+  public void seed() {
+    helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+
+    List<Entity> batch = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < comments; i++) {
+      Entity comment = new Entity("Comment");
+      comment.setProperty("name", "Visitor " + (i % 500));
+      comment.setProperty("message", "Comment number " + i + " about the portfolio page.");
+      comment.setProperty("timestamp", (long) i);
+      comment.setProperty("generation", 0L);
+      comment.setProperty("userId", "user-" + (i % 5000));
+      comment.setProperty("moderationScore", (i % 100) / 100.0);
+      comment.setUnindexedProperty("renderedHtml", new Text(renderedHtml(i)));
+      batch.add(comment);
+      if (batch.size() == BATCH_SIZE) {
+        datastore.put(batch);
+        batch.clear();
+      }
+    }
+    datastore.put(batch);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public void fullEntities(Blackhole blackhole) {
+    readAll(feedQuery(), blackhole);
+  }
+
+  @Benchmark
+  public void projection(Blackhole blackhole) {
+    // Mirrors the query DataServlet builds when comments.useProjection is set
+    Query query = feedQuery();
+    query.addProjection(new PropertyProjection("name", String.class));
+    query.addProjection(new PropertyProjection("message", String.class));
+    query.addProjection(new PropertyProjection("timestamp", Long.class));
+    readAll(query, blackhole);
+  }
+
+  private static Query feedQuery() {
+    return new Query("Comment")
+        .setFilter(new FilterPredicate("generation", FilterOperator.EQUAL, 0L))
+        .addSort("timestamp", SortDirection.DESCENDING);
+  }
+
+  private void readAll(Query query, Blackhole blackhole) {
+    FetchOptions options = FetchOptions.Builder.withChunkSize(BATCH_SIZE);
+    for (Entity entity : datastore.prepare(query).asIterable(options)) {
+      blackhole.consume(entity.getProperty("name"));
+      blackhole.consume(entity.getProperty("message"));
+      blackhole.consume(entity.getProperty("timestamp"));
+    }
+  }
+
+  private static String renderedHtml(int i) {
+    StringBuilder html = new StringBuilder("<p>");
+    for (int j = 0; j < 40; j++) {
+      html.append("Comment number ").append(i).append(' ');
+    }
+    return html.append("</p>").toString();
+  }
+}
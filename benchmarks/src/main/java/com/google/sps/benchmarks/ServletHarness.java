@@ -0,0 +1,225 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal in-memory requests and responses for calling servlets directly from a benchmark. Only
+ * the methods the portfolio servlets use are backed by real behaviour; anything else returns a
+ * default value.
+ */
+final class ServletHarness {
+
+  private ServletHarness() {
+    // Disallow instances.
+  }
+
+  /**
+   * Returns a request for {@code method} with the given query parameters, headers and body.
+   */
+  static HttpServletRequest request(String method, Map<String, String> parameters,
+      Map<String, String> headers, String body) {
+    return request(method, parameters, headers, body, null);
+  }
+
+  /**
+   * Returns a POST with the given form parameters. If the servlet goes async, tasks passed to
+   * {@code AsyncContext.start} run inline on the calling thread and write to {@code response}, so
+   * the call has finished by the time {@code doPost} returns.
+   */
+  static HttpServletRequest post(Map<String, String> parameters, Response response) {
+    return request("POST", parameters, Collections.emptyMap(), "", response.servletResponse());
+  }
+
+  private static HttpServletRequest request(String method, Map<String, String> parameters,
+      Map<String, String> headers, String body, HttpServletResponse asyncResponse) {
+    Map<String, Object> attributes = new HashMap<>();
+    return (HttpServletRequest) Proxy.newProxyInstance(ServletHarness.class.getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class}, (proxy, method2, args) -> {
+          switch (method2.getName()) {
+            case "getMethod":
+              return method;
+            case "getParameter":
+              return parameters.get(args[0]);
+            case "getHeader":
+              return headers.get(args[0]);
+            case "getScheme":
+              return "http";
+            case "getServerName":
+              return "localhost";
+            case "getServerPort":
+              return 80;
+            case "getReader":
+              return new BufferedReader(new StringReader(body));
+            case "getAttribute":
+              return attributes.get(args[0]);
+            case "setAttribute":
+              attributes.put((String) args[0], args[1]);
+              return null;
+            case "getParameterMap":
+              return Collections.unmodifiableMap(parameters);
+            case "isAsyncSupported":
+              return asyncResponse != null;
+            case "startAsync":
+              return inlineAsyncContext((HttpServletRequest) proxy, asyncResponse);
+            default:
+              return defaultValue(method2.getReturnType());
+          }
+        });
+  }
+
+  /**
+   * Returns a GET request with the given query parameters.
+   */
+  static HttpServletRequest get(Map<String, String> parameters) {
+    return request("GET", parameters, Collections.emptyMap(), "");
+  }
+
+  /** A response that keeps the status, headers and body in memory. */
+  static final class Response {
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final Map<String, String> headers = new HashMap<>();
+    private int status = HttpServletResponse.SC_OK;
+    private final PrintWriter writer;
+    private final HttpServletResponse servletResponse;
+
+    Response() {
+      ServletOutputStream stream = new ServletOutputStream() {
+        @Override
+        public void write(int b) {
+          body.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+          body.write(bytes, offset, length);
+        }
+
+        @Override
+        public boolean isReady() {
+          return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {}
+      };
+      writer = new PrintWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+
+      servletResponse = (HttpServletResponse) Proxy.newProxyInstance(
+          ServletHarness.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class},
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getOutputStream":
+                return stream;
+              case "getWriter":
+                return writer;
+              case "setStatus":
+              case "sendError":
+                status = (int) args[0];
+                return null;
+              case "sendRedirect":
+                status = HttpServletResponse.SC_FOUND;
+                headers.put("Location", (String) args[0]);
+                return null;
+              case "setHeader":
+              case "addHeader":
+                headers.put((String) args[0], (String) args[1]);
+                return null;
+              case "getHeader":
+                return headers.get(args[0]);
+              case "getStatus":
+                return status;
+              case "flushBuffer":
+                writer.flush();
+                return null;
+              default:
+                return defaultValue(method.getReturnType());
+            }
+          });
+    }
+
+    HttpServletResponse servletResponse() {
+      return servletResponse;
+    }
+
+    int status() {
+      return status;
+    }
+
+    byte[] body() {
+      writer.flush();
+      return body.toByteArray();
+    }
+
+    /**
+     * Clears the response so that it can be reused for the next call.
+     */
+    void reset() {
+      body.reset();
+      headers.clear();
+      status = HttpServletResponse.SC_OK;
+    }
+  }
+
+  private static AsyncContext inlineAsyncContext(HttpServletRequest request,
+      HttpServletResponse response) {
+    if (response == null) {
+      throw new IllegalStateException("This request does not support async");
+    }
+    return (AsyncContext) Proxy.newProxyInstance(ServletHarness.class.getClassLoader(),
+        new Class<?>[] {AsyncContext.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getRequest":
+              return request;
+            case "getResponse":
+              return response;
+            case "start":
+              ((Runnable) args[0]).run();
+              return null;
+            default:
+              return defaultValue(method.getReturnType());
+          }
+        });
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,110 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Deletes entities in batches, with several batch RPCs in flight at once. Feed it the results of a
+ * keys-only query so that no entity bodies are fetched just to be thrown away.
+ */
+public final class BatchDeleter {
+
+  // Datastore accepts at most 500 keys in a single delete
+  public static final int BATCH_SIZE = 500;
+
+  // Number of delete RPCs allowed in flight at the same time
+  private static final int MAX_IN_FLIGHT = 8;
+
+  private static final AsyncDatastoreService ASYNC_DATASTORE =
+      DatastoreServiceFactory.getAsyncDatastoreService();
+
+  private BatchDeleter() {
+    // Disallow instances.
+  }
+
+  /**
+   * Deletes every entity in {@code entities} and returns how many were deleted. Blocks until all
+   * the deletes have finished, and throws if any of them failed. Deletes already sent are waited
+   * for even after a failure, so none is still running when this returns.
+   */
+  public static long deleteAll(Iterable<Entity> entities) {
+    Queue<Future<Void>> inFlight = new ArrayDeque<>(MAX_IN_FLIGHT);
+    List<Key> batch = new ArrayList<>(BATCH_SIZE);
+    long deleted = 0;
+    try {
+      for (Entity entity : entities) {
+        batch.add(entity.getKey());
+        if (batch.size() == BATCH_SIZE) {
+          send(inFlight, batch);
+          deleted += batch.size();
+          batch = new ArrayList<>(BATCH_SIZE);
+        }
+      }
+      if (!batch.isEmpty()) {
+        send(inFlight, batch);
+        deleted += batch.size();
+      }
+      while (!inFlight.isEmpty()) {
+        await(inFlight.remove());
+      }
+    } finally {
+      while (!inFlight.isEmpty()) {
+        try {
+          await(inFlight.remove());
+        } catch (RuntimeException e) {
+          // Already failing; the first error is the one reported
+        }
+      }
+    }
+    return deleted;
+  }
+
+  /*
+   * Starts deleting {@code batch}, first waiting for the oldest delete if {@code MAX_IN_FLIGHT}
+   * are already running.
+   */
+  private static void send(Queue<Future<Void>> inFlight, List<Key> batch) {
+    if (inFlight.size() == MAX_IN_FLIGHT) {
+      await(inFlight.remove());
+    }
+    inFlight.add(ASYNC_DATASTORE.delete(batch));
+  }
+
+  private static void await(Future<Void> delete) {
+    try {
+      delete.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new DatastoreFailureException("Batch delete failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatastoreFailureException("Interrupted while waiting for a batch delete", e);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/** A comment left on the portfolio page. */
+public final class Comment {
+
+  // Web-safe form of the comment's Datastore key, or null for a comment that has not been stored
+  private final String id;
+
+  private final String name;
+  private final String message;
+
+  // Milliseconds since the epoch when the comment was posted
+  private final Long timestamp;
+
+  public Comment(String id, String name, String message, Long timestamp) {
+    this.id = id;
+    this.name = name;
+    this.message = message;
+    this.timestamp = timestamp;
+  }
+
+  /**
+   * Returns the comment stored in {@code entity}, which may be a projection of the displayed
+   * properties.
+   */
+  public static Comment fromEntity(Entity entity) {
+    Key key = entity.getKey();
+    return new Comment(key.isComplete() ? KeyFactory.keyToString(key) : null,
+        (String) entity.getProperty("name"), (String) entity.getProperty("message"),
+        (Long) entity.getProperty("timestamp"));
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public Long getTimestamp() {
+    return timestamp;
+  }
+}
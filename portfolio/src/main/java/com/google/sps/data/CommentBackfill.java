@@ -0,0 +1,164 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One-off migration for comments stored before they carried a {@code timestamp} and a
+ * {@code generation}. The feed filters and sorts on both properties, so a comment missing either
+ * is never shown, and the sweeper, which only matches older generations, never deletes it.
+ *
+ * <p>Every comment is walked in key order in slices of {@code SLICE_SIZE}, each holding a
+ * {@link JobLease} on the migration and checkpointing the cursor when it is done. A comment
+ * without a timestamp is given 0, which files it after every timed comment. A comment without a
+ * generation predates every clear, so it is deleted if the comments have been cleared since, and
+ * placed in generation 0 otherwise. Once the walk is done the job is never run again. An admin
+ * starts it once after deploying; it is not started automatically, since every instance would try
+ * to.
+ */
+public final class CommentBackfill {
+
+  private static final Key JOB_KEY = KeyFactory.createKey("Migration", "CommentBackfill");
+
+  public static final String STATE_RUNNING = JobLease.STATE_RUNNING;
+  public static final String STATE_DONE = "DONE";
+
+  // Comments read per slice; also the largest batch a single put or delete accepts
+  private static final int SLICE_SIZE = BatchDeleter.BATCH_SIZE;
+
+  private static final Logger LOGGER = Logger.getLogger(CommentBackfill.class.getName());
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private final JobLease lease = new JobLease(JOB_KEY);
+  private final JobQueue queue;
+  private final Runnable onChange;
+
+  /**
+   * Creates the migration.
+   *
+   * @param queue The queue that slices of the migration run on.
+   * @param onChange Called after a slice has changed any comments, so cached pages can be dropped.
+   */
+  public CommentBackfill(JobQueue queue, Runnable onChange) {
+    this.queue = queue;
+    queue.setTask(this::runSlice);
+    this.onChange = onChange;
+  }
+
+  /**
+   * Starts the migration if it has not finished yet, or resumes it if its worker has gone away,
+   * and returns {@code STATE_RUNNING} or {@code STATE_DONE}. Safe to call more than once.
+   */
+  public String start() {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity job = lease.load(txn);
+      if (job == null) {
+        job = lease.newJob();
+        job.setProperty("updated", 0L);
+        job.setProperty("deleted", 0L);
+        datastore.put(txn, job);
+      }
+      txn.commit();
+      if (JobLease.isAbandoned(job)) {
+        queue.add(0);
+      }
+      return (String) job.getProperty("state");
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /*
+   * Fixes up one slice of comments, checkpoints the job and queues the next slice.
+   */
+  private void runSlice() {
+    Entity job = lease.claim();
+    if (job == null) {
+      return;
+    }
+    try {
+      FetchOptions options = FetchOptions.Builder.withLimit(SLICE_SIZE);
+      Text cursor = (Text) job.getProperty("cursor");
+      if (cursor != null) {
+        options.startCursor(Cursor.fromWebSafeString(cursor.getValue()));
+      }
+      QueryResultList<Entity> comments =
+          datastore.prepare(new Query("Comment")).asQueryResultList(options);
+
+      long currentGeneration = CommentGeneration.current();
+      List<Entity> updates = new ArrayList<>();
+      List<Key> deletes = new ArrayList<>();
+      for (Entity comment : comments) {
+        if (!comment.hasProperty("generation") && currentGeneration > 0) {
+          deletes.add(comment.getKey());
+          continue;
+        }
+        boolean changed = false;
+        if (!comment.hasProperty("generation")) {
+          comment.setProperty("generation", 0L);
+          changed = true;
+        }
+        if (!comment.hasProperty("timestamp")) {
+          comment.setProperty("timestamp", 0L);
+          changed = true;
+        }
+        if (changed) {
+          updates.add(comment);
+        }
+      }
+      datastore.put(updates);
+      datastore.delete(deletes);
+      if (!updates.isEmpty() || !deletes.isEmpty()) {
+        onChange.run();
+      }
+
+      job.setProperty("updated", (long) job.getProperty("updated") + updates.size());
+      job.setProperty("deleted", (long) job.getProperty("deleted") + deletes.size());
+      job.setUnindexedProperty("cursor", new Text(comments.getCursor().toWebSafeString()));
+      if (comments.size() < SLICE_SIZE) {
+        job.setProperty("state", STATE_DONE);
+        LOGGER.info("Comment backfill done: " + job.getProperty("updated") + " updated, "
+            + job.getProperty("deleted") + " deleted");
+      }
+      if (lease.checkpoint(job) && STATE_RUNNING.equals(job.getProperty("state"))) {
+        queue.add(0);
+      }
+    } catch (RuntimeException e) {
+      // Try again once the lease has run out; every step of a slice is safe to repeat
+      LOGGER.log(Level.WARNING, "Comment backfill slice failed, retrying", e);
+      queue.add(JobLease.LEASE_MILLIS);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-instance cache of serialized comment feed responses. Entries expire after a fixed time to
+ * live so that separate App Engine instances converge on writes they did not see, and the least
+ * recently used entry is evicted once the cache is full.
+ */
+public final class CommentCache {
+
+  private final int maxEntries;
+  private final long ttlMillis;
+
+  // Bumped on every invalidation so that responses computed before a write are never stored
+  private long version = 0;
+
+  private final LinkedHashMap<String, CacheEntry> entries;
+
+  public CommentCache(int maxEntries, long ttlMillis) {
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+    // Access order turns the map into an LRU list, with the eldest entry being the least recent
+    this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+        return size() > CommentCache.this.maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns the cached bytes for {@code key}, or null if there are none or they have expired.
+   */
+  public synchronized byte[] get(String key) {
+    CacheEntry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (System.currentTimeMillis() >= entry.expiresAt) {
+      entries.remove(key);
+      return null;
+    }
+    return entry.value;
+  }
+
+  /**
+   * Returns the current version of the cache. Pass it back to {@code put} so that a value computed
+   * while a write was in progress is dropped instead of cached.
+   */
+  public synchronized long version() {
+    return version;
+  }
+
+  /**
+   * Stores {@code value} under {@code key} unless the cache has been invalidated since
+   * {@code version} was read.
+   */
+  public synchronized void put(String key, byte[] value, long version) {
+    if (version != this.version) {
+      return;
+    }
+    entries.put(key, new CacheEntry(value, System.currentTimeMillis() + ttlMillis));
+  }
+
+  /**
+   * Drops every cached response. Called whenever comments are added or deleted.
+   */
+  public synchronized void invalidateAll() {
+    version++;
+    entries.clear();
+  }
+
+  private static final class CacheEntry {
+    private final byte[] value;
+    private final long expiresAt;
+
+    private CacheEntry(byte[] value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+
+/**
+ * The current comment generation. Every comment is stamped with the generation it was posted in
+ * and only comments in the current generation are shown, so clearing every comment is a single
+ * write that moves to the next generation. Comments left in older generations are reclaimed later
+ * by a background sweeper.
+ */
+public final class CommentGeneration {
+
+  private static final Key KEY = KeyFactory.createKey("CommentGeneration", "current");
+
+  private static final DatastoreService DATASTORE = DatastoreServiceFactory.getDatastoreService();
+
+  private CommentGeneration() {
+    // Disallow instances.
+  }
+
+  /**
+   * Returns the current generation. Lookups by key are strongly consistent, so a comment posted
+   * right after {@code advance} is always stamped with the new generation.
+   */
+  public static long current() {
+    try {
+      return (long) DATASTORE.get(KEY).getProperty("generation");
+    } catch (EntityNotFoundException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Moves to the next generation, hiding every existing comment, and returns the new generation.
+   */
+  public static long advance() {
+    Transaction txn = DATASTORE.beginTransaction();
+    try {
+      long generation;
+      try {
+        generation = (long) DATASTORE.get(txn, KEY).getProperty("generation") + 1;
+      } catch (EntityNotFoundException e) {
+        generation = 1;
+      }
+      Entity entity = new Entity(KEY);
+      entity.setProperty("generation", generation);
+      DATASTORE.put(txn, entity);
+      txn.commit();
+      return generation;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+}
@@ -0,0 +1,40 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import java.util.List;
+
+/** One page of the comment feed plus the token needed to fetch the page after it. */
+public final class CommentPage {
+
+  private final List<Comment> comments;
+
+  // Web-safe Datastore cursor for the next page, or null when this is the last page
+  private final String cursor;
+
+  public CommentPage(List<Comment> comments, String cursor) {
+    this.comments = comments;
+    this.cursor = cursor;
+  }
+
+  public List<Comment> getComments() {
+    return comments;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+}
@@ -0,0 +1,58 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Version counter for the Comment kind, shared by every instance through memcache. It is bumped
+ * after each write so that it can be handed out as an ETag for the comment feed. If memcache
+ * evicts the counter it is reseeded from the clock, so an old version is never handed out again.
+ */
+public final class CommentVersion {
+
+  // Returned when memcache cannot be reached and the version is unknown
+  public static final long UNKNOWN = -1;
+
+  private static final String KEY = "Comment:version";
+
+  private static final MemcacheService MEMCACHE = MemcacheServiceFactory.getMemcacheService();
+
+  private CommentVersion() {
+    // Disallow instances.
+  }
+
+  /**
+   * Returns the current version of the Comment kind, or {@code UNKNOWN} if it cannot be read.
+   */
+  public static long current() {
+    Object version = MEMCACHE.get(KEY);
+    if (version == null) {
+      MEMCACHE.put(KEY, System.currentTimeMillis(), null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      version = MEMCACHE.get(KEY);
+    }
+    return version instanceof Long ? (Long) version : UNKNOWN;
+  }
+
+  /**
+   * Moves the Comment kind to a new version. Call after every write to comments.
+   */
+  public static void bump() {
+    MEMCACHE.increment(KEY, 1, System.currentTimeMillis());
+  }
+}
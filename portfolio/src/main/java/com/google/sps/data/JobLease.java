@@ -0,0 +1,121 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.Objects;
+
+/**
+ * Bookkeeping for a job that runs in slices, one task at a time on a {@link JobQueue}, and keeps
+ * its progress in a single Datastore entity. A slice claims a lease on the entity before it starts,
+ * which keeps two instances from working on the same job at once, and gives it back when it
+ * checkpoints. A running job whose lease has run out has lost its worker, for example to an
+ * instance restart, and the next slice queued for it takes over from the last checkpoint.
+ */
+final class JobLease {
+
+  static final String STATE_RUNNING = "RUNNING";
+
+  // How long a slice may hold the job before another worker is allowed to take it over
+  static final long LEASE_MILLIS = 5 * 60 * 1000;
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private final Key jobKey;
+
+  JobLease(Key jobKey) {
+    this.jobKey = jobKey;
+  }
+
+  /**
+   * Returns a new running job entity, not yet stored and free for the first slice to claim.
+   */
+  Entity newJob() {
+    Entity job = new Entity(jobKey);
+    job.setProperty("state", STATE_RUNNING);
+    job.setProperty("startedAt", System.currentTimeMillis());
+    job.setProperty("leaseExpiresAt", 0L);
+    return job;
+  }
+
+  /**
+   * Returns true if {@code job} is running but no worker holds its lease.
+   */
+  static boolean isAbandoned(Entity job) {
+    return STATE_RUNNING.equals(job.getProperty("state"))
+        && (long) job.getProperty("leaseExpiresAt") < System.currentTimeMillis();
+  }
+
+  /**
+   * Takes the lease on the running job. Returns the job, or null if it is not running or another
+   * worker holds the lease.
+   */
+  Entity claim() {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity job = load(txn);
+      if (job == null || !isAbandoned(job)) {
+        return null;
+      }
+      job.setProperty("leaseExpiresAt", System.currentTimeMillis() + LEASE_MILLIS);
+      datastore.put(txn, job);
+      txn.commit();
+      return job;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /**
+   * Saves the progress in {@code job} and gives up its lease, unless the job was restarted while
+   * the slice ran. Returns true if the checkpoint was saved.
+   */
+  boolean checkpoint(Entity job) {
+    job.setProperty("leaseExpiresAt", 0L);
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity stored = load(txn);
+      if (stored == null
+          || !Objects.equals(stored.getProperty("startedAt"), job.getProperty("startedAt"))) {
+        return false;
+      }
+      datastore.put(txn, job);
+      txn.commit();
+      return true;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /**
+   * Returns the stored job, read within {@code txn} unless it is null, or null if there is none.
+   */
+  Entity load(Transaction txn) {
+    try {
+      return txn == null ? datastore.get(jobKey) : datastore.get(txn, jobKey);
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.utils.SystemProperty;
+
+/**
+ * Queue of background work for one job, shaped after the App Engine push task queue. The job sets
+ * its task once, and every {@code add} schedules one more run of it. Like a push queue task, a run
+ * may happen more than once (for example after an instance restarts), so the task must be safe to
+ * repeat.
+ */
+public interface JobQueue {
+
+  /**
+   * Sets the task that this queue runs. Called once, before anything is added.
+   */
+  void setTask(Runnable task);
+
+  /**
+   * Schedules a run of the task once {@code countdownMillis} have passed.
+   */
+  void add(long countdownMillis);
+
+  /**
+   * Returns the queue for the job named {@code name}: the App Engine push queue on a deployed
+   * instance, and an in-process worker under the dev server, tests and the benchmarks.
+   */
+  static JobQueue named(String name) {
+    if (SystemProperty.environment.value() == SystemProperty.Environment.Value.Production) {
+      return new TaskQueueJobQueue(name);
+    }
+    return new LocalJobQueue(name);
+  }
+}
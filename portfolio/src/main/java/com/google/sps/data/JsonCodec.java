@@ -0,0 +1,101 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
+/**
+ * JSON written by the comment feed. Pages and stream events are written comment by comment
+ * straight onto the output, so the adapters only write; comments come in as form posts or through
+ * the hand-validated reader in BulkDataServlet, never as JSON read through here.
+ */
+public final class JsonCodec {
+
+  /**
+   * Writes a comment as {"id": ..., "name": ..., "message": ..., "timestamp": ...}. The id is left
+   * out for a comment that has not been stored.
+   */
+  public static final TypeAdapter<Comment> COMMENT = new TypeAdapter<Comment>() {
+    @Override
+    public void write(JsonWriter writer, Comment comment) throws IOException {
+      if (comment == null) {
+        writer.nullValue();
+        return;
+      }
+      writer.beginObject();
+      if (comment.getId() != null) {
+        writer.name("id").value(comment.getId());
+      }
+      writer.name("name").value(comment.getName());
+      writer.name("message").value(comment.getMessage());
+      writer.name("timestamp").value(comment.getTimestamp());
+      writer.endObject();
+    }
+
+    @Override
+    public Comment read(JsonReader reader) {
+      throw new UnsupportedOperationException("Comments are never read from JSON");
+    }
+  };
+
+  /**
+   * Writes a page of the feed as {"comments": [...], "cursor": ...}. The cursor is left out on the
+   * last page.
+   */
+  public static final TypeAdapter<CommentPage> COMMENT_PAGE = new TypeAdapter<CommentPage>() {
+    @Override
+    public void write(JsonWriter writer, CommentPage page) throws IOException {
+      if (page == null) {
+        writer.nullValue();
+        return;
+      }
+      writer.beginObject();
+      writer.name("comments");
+      writer.beginArray();
+      for (Comment comment : page.getComments()) {
+        COMMENT.write(writer, comment);
+      }
+      writer.endArray();
+      if (page.getCursor() != null) {
+        writer.name("cursor").value(page.getCursor());
+      }
+      writer.endObject();
+    }
+
+    @Override
+    public CommentPage read(JsonReader reader) {
+      throw new UnsupportedOperationException("Comment pages are never read from JSON");
+    }
+  };
+
+  /**
+   * Gson for the small responses that are not worth an adapter, such as the login status. Any
+   * comment it meets goes through {@link #COMMENT}.
+   */
+  public static final Gson GSON = new GsonBuilder()
+      .registerTypeAdapter(Comment.class, COMMENT)
+      .registerTypeAdapter(CommentPage.class, COMMENT_PAGE)
+      .create();
+
+  private JsonCodec() {
+    // Disallow instances.
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.apphosting.api.ApiProxy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link JobQueue} that runs its task on a single in-process worker thread. It is only used off
+ * App Engine proper, under the dev server, tests and the benchmarks; a deployed instance may not
+ * start threads that outlive a request, so there {@link TaskQueueJobQueue} is used instead.
+ */
+public final class LocalJobQueue implements JobQueue {
+
+  private static final Logger LOGGER = Logger.getLogger(LocalJobQueue.class.getName());
+
+  private final ScheduledExecutorService executor;
+  private Runnable task;
+
+  public LocalJobQueue(String name) {
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public void setTask(Runnable task) {
+    this.task = task;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>App Engine API calls need the environment of a request, so the task runs with the
+   * environment of the thread that added it. The local stubs keep serving that environment after
+   * its request has ended.
+   */
+  @Override
+  public void add(long countdownMillis) {
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    executor.schedule(() -> {
+      ApiProxy.setEnvironmentForCurrentThread(environment);
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.SEVERE, "Background task failed", e);
+      } finally {
+        ApiProxy.clearEnvironmentForCurrentThread();
+      }
+    }, countdownMillis, TimeUnit.MILLISECONDS);
+  }
+}
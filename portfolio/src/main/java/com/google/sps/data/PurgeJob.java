@@ -0,0 +1,240 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.function.LongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background job that deletes every entity matched by a query. The query is built from a bound
+ * passed to {@code start}, such as the generation below which entities are garbage. It is walked
+ * keys-only in slices of {@code SLICE_SIZE}, and after each slice the query cursor and progress are
+ * checkpointed in a PurgeJob entity. Each slice is its own task on a {@link JobQueue} and holds a
+ * {@link JobLease} on the job while it runs, so a job interrupted by an instance restart picks up
+ * from its last checkpoint when it is resumed.
+ */
+public final class PurgeJob {
+
+  public static final String STATE_IDLE = "IDLE";
+  public static final String STATE_RUNNING = JobLease.STATE_RUNNING;
+  public static final String STATE_DONE = "DONE";
+
+  private static final String JOB_KIND = "PurgeJob";
+
+  // Number of keys deleted per slice, and so per checkpoint
+  private static final int SLICE_SIZE = 5000;
+
+  // Counting the matches up front gives the ETA; stop counting here to keep the first slice short
+  private static final int MAX_COUNT = 1_000_000;
+
+  private static final Logger LOGGER = Logger.getLogger(PurgeJob.class.getName());
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private final String name;
+  private final JobLease lease;
+  private final LongFunction<Query> query;
+  private final long sliceDelayMillis;
+  private final JobQueue queue;
+
+  /**
+   * Creates a purge job.
+   *
+   * @param name The name the job's progress is stored under.
+   * @param query Builds the query for the entities to delete from the bound given to {@code start}.
+   * @param sliceDelayMillis How long to wait between slices, to cap the rate of deletes.
+   * @param queue The queue that slices of the job run on.
+   */
+  public PurgeJob(String name, LongFunction<Query> query, long sliceDelayMillis, JobQueue queue) {
+    this.name = name;
+    this.lease = new JobLease(KeyFactory.createKey(JOB_KIND, name));
+    this.query = query;
+    this.sliceDelayMillis = sliceDelayMillis;
+    this.queue = queue;
+    queue.setTask(this::runSlice);
+  }
+
+  /**
+   * Starts purging the entities matched by the query for {@code bound}, and returns the job's
+   * status. A job already running with the same bound is left alone; one running with a different
+   * bound starts over, since its cursor belongs to the old query.
+   */
+  public Status start(long bound) {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity job = lease.load(txn);
+      if (job == null || !STATE_RUNNING.equals(job.getProperty("state"))
+          || (long) job.getProperty("bound") != bound) {
+        job = lease.newJob();
+        job.setProperty("bound", bound);
+        job.setProperty("deleted", 0L);
+        job.setProperty("total", -1L);
+        job.setProperty("updatedAt", job.getProperty("startedAt"));
+        datastore.put(txn, job);
+      }
+      txn.commit();
+      // Harmless if a slice is already queued: only one of them can hold the lease
+      queue.add(0);
+      return new Status(job);
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /**
+   * Requeues a running job whose worker has gone away, for example after an instance restart.
+   */
+  public void resume() {
+    Entity job = lease.load(null);
+    if (job != null && JobLease.isAbandoned(job)) {
+      queue.add(0);
+    }
+  }
+
+  /**
+   * Returns the job's progress. Checking also resumes the job if its worker has gone away.
+   */
+  public Status status() {
+    Entity job = lease.load(null);
+    if (job == null) {
+      return new Status(STATE_IDLE, 0, -1, 0, 0);
+    }
+    if (JobLease.isAbandoned(job)) {
+      queue.add(0);
+    }
+    return new Status(job);
+  }
+
+  /*
+   * Deletes one slice of the matched entities, checkpoints the job and queues the next slice.
+   */
+  private void runSlice() {
+    Entity job = lease.claim();
+    if (job == null) {
+      return;
+    }
+    try {
+      Query keysQuery = query.apply((long) job.getProperty("bound")).setKeysOnly();
+      if ((long) job.getProperty("total") < 0) {
+        long remaining =
+            datastore.prepare(keysQuery).countEntities(FetchOptions.Builder.withLimit(MAX_COUNT));
+        job.setProperty("total", (long) job.getProperty("deleted") + remaining);
+      }
+
+      FetchOptions options =
+          FetchOptions.Builder.withLimit(SLICE_SIZE).chunkSize(BatchDeleter.BATCH_SIZE);
+      Text cursor = (Text) job.getProperty("cursor");
+      if (cursor != null) {
+        options.startCursor(Cursor.fromWebSafeString(cursor.getValue()));
+      }
+      QueryResultList<Entity> keys = datastore.prepare(keysQuery).asQueryResultList(options);
+      long deleted = BatchDeleter.deleteAll(keys);
+
+      job.setProperty("deleted", (long) job.getProperty("deleted") + deleted);
+      job.setUnindexedProperty("cursor", new Text(keys.getCursor().toWebSafeString()));
+      job.setProperty("updatedAt", System.currentTimeMillis());
+      if (keys.size() < SLICE_SIZE) {
+        job.setProperty("state", STATE_DONE);
+      }
+      if (lease.checkpoint(job) && STATE_RUNNING.equals(job.getProperty("state"))) {
+        queue.add(sliceDelayMillis);
+      }
+    } catch (RuntimeException e) {
+      // Try again once the lease has run out; deleting the same keys twice is harmless
+      LOGGER.log(Level.WARNING, "Purge slice for " + name + " failed, retrying", e);
+      queue.add(JobLease.LEASE_MILLIS);
+    }
+  }
+
+  /** Snapshot of a purge job's progress. */
+  public static final class Status {
+    private final String state;
+    private final long deleted;
+    private final long total;
+    private final long startedAt;
+    private final long updatedAt;
+
+    private Status(Entity job) {
+      this((String) job.getProperty("state"), (long) job.getProperty("deleted"),
+          (long) job.getProperty("total"), (long) job.getProperty("startedAt"),
+          (long) job.getProperty("updatedAt"));
+    }
+
+    private Status(String state, long deleted, long total, long startedAt, long updatedAt) {
+      this.state = state;
+      this.deleted = deleted;
+      this.total = total;
+      this.startedAt = startedAt;
+      this.updatedAt = updatedAt;
+    }
+
+    /**
+     * Returns one of {@code STATE_IDLE}, {@code STATE_RUNNING} or {@code STATE_DONE}.
+     */
+    public String getState() {
+      return state;
+    }
+
+    /**
+     * Returns the number of entities deleted so far.
+     */
+    public long getDeleted() {
+      return deleted;
+    }
+
+    /**
+     * Returns the number of entities there were to delete, or -1 if they have not been counted yet.
+     */
+    public long getTotal() {
+      return total;
+    }
+
+    /**
+     * Returns the average number of entities deleted per second since the job started.
+     */
+    public double getRatePerSecond() {
+      long elapsedMillis = updatedAt - startedAt;
+      return elapsedMillis <= 0 ? 0 : deleted * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * Returns the estimated number of seconds until the job finishes, or -1 if it is unknown.
+     */
+    public long getEtaSeconds() {
+      if (STATE_DONE.equals(state)) {
+        return 0;
+      }
+      double rate = getRatePerSecond();
+      if (total < 0 || rate <= 0) {
+        return -1;
+      }
+      return (long) Math.ceil(Math.max(0, total - deleted) / rate);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link JobQueue} backed by the default App Engine push queue. Each run is a push request to
+ * {@code HANDLER_PATH} that names the queue, so it can land on any instance and runs within a
+ * request of its own. The handler finds the task by that name, which is why each job sets its
+ * task up as soon as it is created.
+ */
+public final class TaskQueueJobQueue implements JobQueue {
+
+  /** Path that push requests for every job queue are sent to. */
+  public static final String HANDLER_PATH = "/tasks/jobs";
+
+  /** Name of the request parameter that carries the queue name. */
+  public static final String QUEUE_PARAMETER = "queue";
+
+  // Tasks of the queues set up on this instance, by queue name
+  private static final Map<String, Runnable> TASKS = new ConcurrentHashMap<>();
+
+  private final String name;
+
+  TaskQueueJobQueue(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public void setTask(Runnable task) {
+    TASKS.put(name, task);
+  }
+
+  @Override
+  public void add(long countdownMillis) {
+    QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(HANDLER_PATH)
+        .param(QUEUE_PARAMETER, name)
+        .countdownMillis(countdownMillis));
+  }
+
+  /**
+   * Runs one pushed task of the queue named {@code name} on the calling thread. Returns false if
+   * no job on this instance has set that queue up.
+   */
+  public static boolean run(String name) {
+    Runnable task = TASKS.get(name);
+    if (task == null) {
+      return false;
+    }
+    task.run();
+    return true;
+  }
+}
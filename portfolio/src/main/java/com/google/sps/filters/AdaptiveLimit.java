@@ -0,0 +1,83 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.filters;
+
+/**
+ * Concurrency limit that adapts to measured latency, in the style of the gradient limiters in
+ * Netflix's concurrency-limits. A moving average of recent latency is compared with the latency
+ * seen without queueing, estimated by the lowest recent sample. While the two agree the limit
+ * grows by a small queue allowance; once recent requests are slower by more than
+ * {@code TOLERANCE} the limit shrinks in proportion, so work waits here instead of piling onto
+ * Datastore.
+ */
+final class AdaptiveLimit {
+
+  // Recent latency may exceed the baseline by this factor before the limit starts to shrink
+  private static final double TOLERANCE = 1.5;
+
+  // Weight of each new sample in the recent latency average
+  private static final double RECENT_WEIGHT = 0.1;
+
+  // The no-load estimate rises by this fraction per sample, so that it follows a lasting slowdown
+  // of Datastore itself after some thousands of requests instead of shrinking the limit for good
+  private static final double NO_LOAD_DRIFT = 0.0001;
+
+  // Fraction of the computed limit applied per sample, so that one slow request cannot halve it
+  private static final double SMOOTHING = 0.2;
+
+  private final int minLimit;
+  private final int maxLimit;
+
+  private double limit;
+  private double recentRtt;
+  private double noLoadRtt;
+
+  AdaptiveLimit(int initialLimit, int minLimit, int maxLimit) {
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+  }
+
+  /**
+   * Returns the current number of requests allowed in flight.
+   */
+  synchronized int get() {
+    return (int) limit;
+  }
+
+  /**
+   * Feeds the latency of one finished request, which ran with {@code inFlight} requests in flight.
+   */
+  synchronized void onSample(long rttNanos, int inFlight) {
+    if (noLoadRtt == 0) {
+      recentRtt = rttNanos;
+      noLoadRtt = rttNanos;
+      return;
+    }
+    recentRtt += (rttNanos - recentRtt) * RECENT_WEIGHT;
+    noLoadRtt = Math.min(rttNanos, noLoadRtt * (1 + NO_LOAD_DRIFT));
+
+    // Requests that barely use the limit say nothing about whether it could be higher
+    if (inFlight < limit / 2) {
+      return;
+    }
+
+    double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * noLoadRtt / recentRtt));
+    double newLimit = limit * gradient + Math.sqrt(limit);
+    newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+    limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+  }
+}
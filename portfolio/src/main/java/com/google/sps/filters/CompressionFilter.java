@@ -0,0 +1,532 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.filters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Filter that gzips text responses for clients that accept it. Bodies smaller than
+ * {@code MIN_COMPRESS_BYTES} are sent as they are, since the gzip framing would outweigh the
+ * savings. Responses that carry an ETag or Last-Modified header are identical for every request
+ * with that validator, so their compressed bytes are cached and reused instead of recompressed.
+ * Every response of a compressible type says {@code Vary: Accept-Encoding}, compressed or not, so
+ * shared caches never hand one encoding to a client that asked for the other.
+ *
+ * <p>A request that goes async is finished when its {@link AsyncContext} is completed, or when it
+ * times out or fails, rather than when the filter chain returns. A servlet that sets a
+ * {@link WriteListener} gets the body sent uncompressed through the container's own stream, since
+ * gzip cannot be written without blocking.
+ *
+ * <p>Brotli is not offered because there is no pure-Java encoder to build on. In production App
+ * Engine serves the static files itself, so only the dynamic routes pass through this filter there.
+ */
+@WebFilter(urlPatterns = {"/data", "/login", "/batch", "*.html", "*.css", "*.js"},
+    asyncSupported = true)
+public class CompressionFilter implements Filter {
+
+  // Below this size compressing does not pay for itself
+  private static final int MIN_COMPRESS_BYTES = 1024;
+
+  // Bodies larger than this are compressed as they are written instead of being buffered
+  private static final int MAX_BUFFERED_BYTES = 256 * 1024;
+
+  // Bounds on the precompressed cache, in entries and in bytes per entry
+  private static final int MAX_CACHE_ENTRIES = 128;
+  private static final int MAX_CACHED_BYTES = 256 * 1024;
+
+  private final Map<String, byte[]> compressedCache =
+      new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+          return size() > MAX_CACHE_ENTRIES;
+        }
+      };
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse,
+      FilterChain chain) throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+    if (!request.getMethod().equals("GET")) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    CompressingResponse wrapper = new CompressingResponse(request, response, acceptsGzip(request));
+    AsyncAwareRequest wrappedRequest = new AsyncAwareRequest(request, wrapper);
+    chain.doFilter(wrappedRequest, wrapper);
+    if (!wrappedRequest.isAsyncStarted()) {
+      wrapper.finish();
+    }
+  }
+
+  @Override
+  public void destroy() {}
+
+  /*
+   * Returns true unless the Accept-Encoding header omits gzip or gives it a quality of zero.
+   */
+  private static boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (!parts[0].trim().equalsIgnoreCase("gzip")) {
+        continue;
+      }
+      for (int i = 1; i < parts.length; i++) {
+        String parameter = parts[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            return Double.parseDouble(parameter.substring(2)) > 0;
+          } catch (NumberFormatException e) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Returns a key that identifies this exact response body, or null if it cannot be cached.
+   */
+  private static String cacheKey(HttpServletRequest request, HttpServletResponse response) {
+    if (response.getStatus() != HttpServletResponse.SC_OK) {
+      return null;
+    }
+    String validator = response.getHeader("ETag");
+    if (validator == null) {
+      validator = response.getHeader("Last-Modified");
+    }
+    if (validator == null) {
+      return null;
+    }
+    String query = request.getQueryString();
+    return request.getRequestURI() + (query == null ? "" : "?" + query) + "|" + validator;
+  }
+
+  private static boolean isCompressible(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    return contentType.startsWith("text/") || contentType.startsWith("application/json")
+        || contentType.startsWith("application/javascript");
+  }
+
+  private static byte[] gzip(byte[] body) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(body);
+    }
+    return compressed.toByteArray();
+  }
+
+  /*
+   * Marks the response as gzipped. A strong ETag only describes the identity encoding, so it is
+   * weakened to keep it valid for the compressed bytes.
+   */
+  private static void setGzipHeaders(HttpServletResponse response) {
+    response.setHeader("Content-Encoding", "gzip");
+    setVary(response);
+    String etag = response.getHeader("ETag");
+    if (etag != null && !etag.startsWith("W/")) {
+      response.setHeader("ETag", "W/" + etag);
+    }
+  }
+
+  /*
+   * Marks the response as depending on Accept-Encoding, unless it already is.
+   */
+  private static void setVary(HttpServletResponse response) {
+    for (String vary : response.getHeaders("Vary")) {
+      if (vary.toLowerCase().contains("accept-encoding")) {
+        return;
+      }
+    }
+    response.addHeader("Vary", "Accept-Encoding");
+  }
+
+  /** Request wrapper that finishes the compressed response when its async request completes. */
+  private static final class AsyncAwareRequest extends HttpServletRequestWrapper {
+    private final CompressingResponse response;
+    private AsyncContext asyncContext;
+
+    private AsyncAwareRequest(HttpServletRequest request, CompressingResponse response) {
+      super(request);
+      this.response = response;
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+      return finishOnComplete(super.startAsync());
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+      return finishOnComplete(super.startAsync(request, response));
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+      return asyncContext != null ? asyncContext : super.getAsyncContext();
+    }
+
+    /*
+     * The container runs AsyncListener.onComplete only after it has closed the output, too late to
+     * send the body, so a normal completion finishes the response from complete() itself. Timeouts
+     * and errors end the request without complete(), and are caught by a listener instead.
+     */
+    private AsyncContext finishOnComplete(AsyncContext delegate) {
+      delegate.addListener(new AsyncListener() {
+        @Override
+        public void onComplete(AsyncEvent event) {}
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+          response.finish();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+          response.finish();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {}
+      });
+      asyncContext = new FinishingAsyncContext(delegate, response);
+      return asyncContext;
+    }
+  }
+
+  /** Async context that sends the compressed body just before the request completes. */
+  private static final class FinishingAsyncContext implements AsyncContext {
+    private final AsyncContext delegate;
+    private final CompressingResponse response;
+
+    private FinishingAsyncContext(AsyncContext delegate, CompressingResponse response) {
+      this.delegate = delegate;
+      this.response = response;
+    }
+
+    @Override
+    public void complete() {
+      try {
+        response.finish();
+      } catch (IOException e) {
+        // The client has gone away; the request is completed either way
+      } finally {
+        delegate.complete();
+      }
+    }
+
+    @Override
+    public ServletRequest getRequest() {
+      return delegate.getRequest();
+    }
+
+    @Override
+    public ServletResponse getResponse() {
+      return delegate.getResponse();
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse() {
+      return delegate.hasOriginalRequestAndResponse();
+    }
+
+    @Override
+    public void dispatch() {
+      delegate.dispatch();
+    }
+
+    @Override
+    public void dispatch(String path) {
+      delegate.dispatch(path);
+    }
+
+    @Override
+    public void dispatch(ServletContext context, String path) {
+      delegate.dispatch(context, path);
+    }
+
+    @Override
+    public void start(Runnable run) {
+      delegate.start(run);
+    }
+
+    @Override
+    public void addListener(AsyncListener listener) {
+      delegate.addListener(listener);
+    }
+
+    @Override
+    public void addListener(AsyncListener listener, ServletRequest request,
+        ServletResponse response) {
+      delegate.addListener(listener, request, response);
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(Class<T> type) throws ServletException {
+      return delegate.createListener(type);
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+      delegate.setTimeout(timeout);
+    }
+
+    @Override
+    public long getTimeout() {
+      return delegate.getTimeout();
+    }
+  }
+
+  /** Response wrapper that holds the body back until it knows whether to compress it. */
+  private final class CompressingResponse extends HttpServletResponseWrapper {
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private final boolean gzipAllowed;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final BufferingOutputStream stream = new BufferingOutputStream();
+    private PrintWriter writer;
+
+    // Set once the body outgrows the buffer and is being written straight to the client
+    private OutputStream passThrough;
+
+    // Set once the body has been sent, so a request that ends twice is only finished once
+    private boolean finished;
+
+    private CompressingResponse(HttpServletRequest request, HttpServletResponse response,
+        boolean gzipAllowed) {
+      super(response);
+      this.request = request;
+      this.response = response;
+      this.gzipAllowed = gzipAllowed;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      if (writer != null) {
+        throw new IllegalStateException("getWriter() has already been called");
+      }
+      return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (writer == null) {
+        writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+      }
+      return writer;
+    }
+
+    @Override
+    public void setContentLength(int length) {
+      // The length is set from the bytes actually sent once the encoding is known
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {}
+
+    @Override
+    public void flushBuffer() throws IOException {
+      if (writer != null) {
+        writer.flush();
+      }
+      if (passThrough != null) {
+        passThrough.flush();
+      }
+    }
+
+    @Override
+    public void resetBuffer() {
+      if (passThrough == null) {
+        buffer.reset();
+      }
+      super.resetBuffer();
+    }
+
+    @Override
+    public void reset() {
+      if (passThrough == null) {
+        buffer.reset();
+      }
+      super.reset();
+    }
+
+    /*
+     * Switches from buffering to writing through to the client, compressing on the fly if the
+     * content type allows it.
+     */
+    private void startPassThrough(boolean compress) throws IOException {
+      boolean compressible = isCompressible(getContentType()) && !response.isCommitted();
+      if (compressible) {
+        setVary(response);
+      }
+      if (compress && gzipAllowed && compressible) {
+        setGzipHeaders(response);
+        passThrough = new GZIPOutputStream(response.getOutputStream());
+      } else {
+        passThrough = response.getOutputStream();
+      }
+      buffer.writeTo(passThrough);
+      buffer.reset();
+    }
+
+    /*
+     * Sends whatever the servlet wrote. Only the first call does anything.
+     */
+    private synchronized void finish() throws IOException {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      if (writer != null) {
+        writer.flush();
+      }
+      if (passThrough != null) {
+        if (passThrough instanceof GZIPOutputStream) {
+          ((GZIPOutputStream) passThrough).finish();
+        }
+        return;
+      }
+      if (response.isCommitted() || buffer.size() == 0) {
+        buffer.writeTo(response.getOutputStream());
+        return;
+      }
+
+      byte[] body = buffer.toByteArray();
+      boolean compressible = isCompressible(getContentType());
+      if (compressible) {
+        setVary(response);
+      }
+      if (!gzipAllowed || body.length < MIN_COMPRESS_BYTES || !compressible) {
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return;
+      }
+
+      String cacheKey = cacheKey(request, response);
+      byte[] compressed = null;
+      if (cacheKey != null) {
+        synchronized (compressedCache) {
+          compressed = compressedCache.get(cacheKey);
+        }
+      }
+      if (compressed == null) {
+        compressed = gzip(body);
+        if (cacheKey != null && compressed.length <= MAX_CACHED_BYTES) {
+          synchronized (compressedCache) {
+            compressedCache.put(cacheKey, compressed);
+          }
+        }
+      }
+      setGzipHeaders(response);
+      response.setContentLength(compressed.length);
+      response.getOutputStream().write(compressed);
+    }
+
+    /** Output stream that buffers the body up to {@code MAX_BUFFERED_BYTES}. */
+    private final class BufferingOutputStream extends ServletOutputStream {
+      @Override
+      public void write(int b) throws IOException {
+        if (passThrough != null) {
+          passThrough.write(b);
+          return;
+        }
+        buffer.write(b);
+        if (buffer.size() > MAX_BUFFERED_BYTES) {
+          startPassThrough(/* compress= */ true);
+        }
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (passThrough != null) {
+          passThrough.write(bytes, offset, length);
+          return;
+        }
+        buffer.write(bytes, offset, length);
+        if (buffer.size() > MAX_BUFFERED_BYTES) {
+          startPassThrough(/* compress= */ true);
+        }
+      }
+
+      @Override
+      public void flush() throws IOException {
+        if (passThrough != null) {
+          passThrough.flush();
+        }
+      }
+
+      @Override
+      public boolean isReady() {
+        if (passThrough instanceof ServletOutputStream) {
+          return ((ServletOutputStream) passThrough).isReady();
+        }
+        return true;
+      }
+
+      /*
+       * Hands the rest of the body to the container's stream, which alone knows when it can take
+       * more without blocking.
+       */
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        try {
+          if (passThrough == null) {
+            startPassThrough(/* compress= */ false);
+          }
+          response.getOutputStream().setWriteListener(writeListener);
+        } catch (IOException e) {
+          throw new IllegalStateException("Could not switch to non-blocking writes", e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,169 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.filters;
+
+import java.io.IOException;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Filter that sheds load before Datastore latency climbs for everyone. Each route group has its
+ * own {@link AdaptiveLimit} on requests in flight, learned from that group's latency, so slow
+ * writes cannot drag down the limit for cheap reads. Groups are also ranked: while a group is at
+ * its limit, every lower group is shed as well, so expensive writes go first while /login keeps
+ * flowing. Rejected requests get a 503 with Retry-After straight away.
+ *
+ * <p>Limits are kept per instance. They only come into play because appengine-web.xml marks the
+ * app threadsafe; otherwise App Engine would send each instance one request at a time.
+ *
+ * <p>The filter publishes itself as a servlet context attribute under its class name, so that
+ * /batch can run each of its sub-requests through the same limits.
+ */
+@WebFilter(urlPatterns = {"/data", "/login", "/delete-data", "/delete-data/status", "/bulk-data",
+    "/batch"}, asyncSupported = true)
+public class ConcurrencyLimitFilter implements Filter {
+
+  // Seconds a client is asked to wait before retrying a shed request
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  /** Route groups in priority order, with the bounds of each group's limit. */
+  private enum RouteGroup {
+    // Cheap reads that pages need to render at all
+    CRITICAL(20, 200),
+    // Comment feed reads
+    READS(20, 500),
+    // Writes, the most expensive requests and the first to be shed
+    WRITES(5, 50);
+
+    private final int initialLimit;
+    private final int maxLimit;
+
+    RouteGroup(int initialLimit, int maxLimit) {
+      this.initialLimit = initialLimit;
+      this.maxLimit = maxLimit;
+    }
+  }
+
+  private static final int MIN_LIMIT = 2;
+
+  private final AdaptiveLimit[] limits = new AdaptiveLimit[RouteGroup.values().length];
+
+  // Requests in flight per group, guarded by this filter's lock
+  private final int[] inFlight = new int[RouteGroup.values().length];
+
+  public ConcurrencyLimitFilter() {
+    for (RouteGroup group : RouteGroup.values()) {
+      limits[group.ordinal()] = new AdaptiveLimit(group.initialLimit, MIN_LIMIT, group.maxLimit);
+    }
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    filterConfig.getServletContext().setAttribute(ConcurrencyLimitFilter.class.getName(), this);
+  }
+
+  @Override
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse,
+      FilterChain chain) throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    RouteGroup group = routeGroup(request);
+    int admittedWith = tryAcquire(group);
+    if (admittedWith < 0) {
+      HttpServletResponse response = (HttpServletResponse) servletResponse;
+      response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+          "The server is busy, please try again");
+      return;
+    }
+
+    long start = System.nanoTime();
+    boolean async = false;
+    try {
+      chain.doFilter(servletRequest, servletResponse);
+      if (request.isAsyncStarted()) {
+        request.getAsyncContext().addListener(new AsyncListener() {
+          @Override
+          public void onComplete(AsyncEvent event) {
+            release(group, System.nanoTime() - start, admittedWith);
+          }
+
+          @Override
+          public void onTimeout(AsyncEvent event) {}
+
+          @Override
+          public void onError(AsyncEvent event) {}
+
+          @Override
+          public void onStartAsync(AsyncEvent event) {}
+        });
+        async = true;
+      }
+    } finally {
+      if (!async) {
+        release(group, System.nanoTime() - start, admittedWith);
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {}
+
+  private static RouteGroup routeGroup(HttpServletRequest request) {
+    switch (request.getServletPath()) {
+      case "/login":
+      case "/delete-data/status":
+        return RouteGroup.CRITICAL;
+      case "/data":
+        return request.getMethod().equals("GET") ? RouteGroup.READS : RouteGroup.WRITES;
+      case "/batch":
+        return RouteGroup.READS;
+      default:
+        return RouteGroup.WRITES;
+    }
+  }
+
+  /*
+   * Admits the request if its group is below its limit and no higher-priority group is at its
+   * own. Returns the number of the group's requests in flight before it, or -1 if it is rejected.
+   */
+  private synchronized int tryAcquire(RouteGroup group) {
+    for (RouteGroup ranked : RouteGroup.values()) {
+      if (inFlight[ranked.ordinal()] >= limits[ranked.ordinal()].get()) {
+        return -1;
+      }
+      if (ranked == group) {
+        break;
+      }
+    }
+    return inFlight[group.ordinal()]++;
+  }
+
+  private void release(RouteGroup group, long rttNanos, int admittedWith) {
+    synchronized (this) {
+      inFlight[group.ordinal()]--;
+    }
+    limits[group.ordinal()].onSample(rttNanos, admittedWith + 1);
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.filters;
+
+import com.google.sps.metrics.ApiTimingDelegate;
+import com.google.sps.metrics.Metrics;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Filter that records the latency, status and response size of every request to the API routes
+ * in {@link Metrics}, for scraping from /metrics. Requests that go async are recorded when they
+ * complete, though only bytes written before they went async are counted. The comment stream is
+ * left out, since its requests stay open by design.
+ *
+ * <p>The filter publishes itself as a servlet context attribute under its class name, so that
+ * /batch can record each of its sub-requests under its own route.
+ */
+@WebFilter(urlPatterns = {"/data", "/login", "/delete-data", "/delete-data/status", "/bulk-data",
+    "/batch"}, asyncSupported = true)
+public class MetricsFilter implements Filter {
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    ApiTimingDelegate.install();
+    filterConfig.getServletContext().setAttribute(MetricsFilter.class.getName(), this);
+  }
+
+  @Override
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse,
+      FilterChain chain) throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    CountingResponse response = new CountingResponse((HttpServletResponse) servletResponse);
+    String route = request.getServletPath();
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      chain.doFilter(request, response);
+      failed = false;
+    } finally {
+      if (!failed && request.isAsyncStarted()) {
+        request.getAsyncContext().addListener(new AsyncListener() {
+          @Override
+          public void onComplete(AsyncEvent event) {
+            record(route, start, response, false);
+          }
+
+          @Override
+          public void onTimeout(AsyncEvent event) {}
+
+          @Override
+          public void onError(AsyncEvent event) {}
+
+          @Override
+          public void onStartAsync(AsyncEvent event) {}
+        });
+      } else {
+        response.flushWriter();
+        record(route, start, response, failed);
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {}
+
+  private static void record(String route, long start, CountingResponse response,
+      boolean failed) {
+    int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus();
+    Metrics.recordRequest(route, System.nanoTime() - start, status, response.bytesWritten);
+  }
+
+  /** Response wrapper that counts the body bytes written through it. */
+  private static final class CountingResponse extends HttpServletResponseWrapper {
+    private long bytesWritten;
+    private ServletOutputStream stream;
+    private PrintWriter writer;
+
+    CountingResponse(HttpServletResponse response) {
+      super(response);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if (stream == null) {
+        ServletOutputStream out = super.getOutputStream();
+        stream = new ServletOutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            out.write(b);
+            bytesWritten++;
+          }
+
+          @Override
+          public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            bytesWritten += length;
+          }
+
+          @Override
+          public void flush() throws IOException {
+            out.flush();
+          }
+
+          @Override
+          public void close() throws IOException {
+            out.close();
+          }
+
+          @Override
+          public boolean isReady() {
+            return out.isReady();
+          }
+
+          @Override
+          public void setWriteListener(WriteListener writeListener) {
+            out.setWriteListener(writeListener);
+          }
+        };
+      }
+      return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (writer == null) {
+        writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+      }
+      return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      flushWriter();
+      super.flushBuffer();
+    }
+
+    // The container flushes its own writer when the request ends but not this one
+    void flushWriter() {
+      if (writer != null) {
+        writer.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,142 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.metrics;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.ApiConfig;
+import com.google.apphosting.api.ApiProxy.Delegate;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.apphosting.api.ApiProxy.LogRecord;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sits in front of the App Engine API delegate and records how long each call takes, by service
+ * and method, in {@link Metrics}. Asynchronous calls are timed until their result is first
+ * collected, which is when the caller stops waiting for them.
+ */
+public final class ApiTimingDelegate implements Delegate<Environment> {
+
+  private final Delegate<Environment> delegate;
+
+  private ApiTimingDelegate(Delegate<Environment> delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Starts timing every API call made on this instance. Safe to call more than once.
+   */
+  @SuppressWarnings("unchecked")
+  public static synchronized void install() {
+    Delegate<Environment> current = ApiProxy.getDelegate();
+    if (current != null && !(current instanceof ApiTimingDelegate)) {
+      ApiProxy.setDelegate(new ApiTimingDelegate(current));
+    }
+  }
+
+  @Override
+  public byte[] makeSyncCall(Environment environment, String packageName, String methodName,
+      byte[] request) {
+    long start = System.nanoTime();
+    try {
+      return delegate.makeSyncCall(environment, packageName, methodName, request);
+    } finally {
+      Metrics.recordApiCall(packageName, methodName, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public Future<byte[]> makeAsyncCall(Environment environment, String packageName,
+      String methodName, byte[] request, ApiConfig apiConfig) {
+    long start = System.nanoTime();
+    Future<byte[]> result =
+        delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+    return new TimedFuture(result, packageName, methodName, start);
+  }
+
+  @Override
+  public void log(Environment environment, LogRecord record) {
+    delegate.log(environment, record);
+  }
+
+  @Override
+  public void flushLogs(Environment environment) {
+    delegate.flushLogs(environment);
+  }
+
+  @Override
+  public List<Thread> getRequestThreads(Environment environment) {
+    return delegate.getRequestThreads(environment);
+  }
+
+  /** A call result that records its latency the first time it is collected. */
+  private static final class TimedFuture implements Future<byte[]> {
+    private final Future<byte[]> result;
+    private final String packageName;
+    private final String methodName;
+    private final long start;
+    private volatile boolean recorded;
+
+    TimedFuture(Future<byte[]> result, String packageName, String methodName, long start) {
+      this.result = result;
+      this.packageName = packageName;
+      this.methodName = methodName;
+      this.start = start;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return result.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return result.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return result.isDone();
+    }
+
+    @Override
+    public byte[] get() throws InterruptedException, ExecutionException {
+      try {
+        return result.get();
+      } finally {
+        record();
+      }
+    }
+
+    @Override
+    public byte[] get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      byte[] bytes = result.get(timeout, unit);
+      record();
+      return bytes;
+    }
+
+    private void record() {
+      if (!recorded && result.isDone()) {
+        recorded = true;
+        Metrics.recordApiCall(packageName, methodName, System.nanoTime() - start);
+      }
+    }
+  }
+}
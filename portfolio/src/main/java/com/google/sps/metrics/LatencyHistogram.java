@@ -0,0 +1,121 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of HdrHistogram. Each power
+ * of two is split into {@code SUB_BUCKETS} equal buckets, so any recorded value is known to within
+ * 1/8 of itself, and the bucket for a value is found with a few bit operations instead of a
+ * search. Values are kept in microseconds, from 0 up to about two minutes; longer ones land in the
+ * last bucket.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Highest power of two, in microseconds, that has buckets of its own: 2^27us is about 134s
+  private static final int MAX_EXPONENT = 26;
+  private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumMicros = new LongAdder();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records one observation of {@code nanos} nanoseconds.
+   */
+  public void record(long nanos) {
+    long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+    buckets[bucketIndex(micros)].increment();
+    count.increment();
+    sumMicros.add(micros);
+  }
+
+  /**
+   * Returns the number of observations recorded.
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the sum of all observations in seconds.
+   */
+  public double sumSeconds() {
+    return sumMicros.sum() / 1e6;
+  }
+
+  /**
+   * Returns the upper bound, in seconds, of the bucket holding the {@code quantile} observation,
+   * for example 0.99 for the 99th percentile. Returns 0 if nothing has been recorded. Concurrent
+   * recording may shift the answer by the observations that land while it is computed.
+   */
+  public double quantileSeconds(double quantile) {
+    long[] counts = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets[i].sum();
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return upperBoundMicros(i) / 1e6;
+      }
+    }
+    return upperBoundMicros(BUCKET_COUNT - 1) / 1e6;
+  }
+
+  /*
+   * Values below SUB_BUCKETS get a bucket each. Above that, the exponent picks a run of
+   * SUB_BUCKETS buckets and the bits just below the leading one pick the bucket within it.
+   */
+  private static int bucketIndex(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int shift = exponent - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKETS + (int) (micros >>> shift);
+  }
+
+  private static long upperBoundMicros(int index) {
+    if (index < SUB_BUCKETS) {
+      return index + 1;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+    return (mantissa + 1) << shift;
+  }
+}
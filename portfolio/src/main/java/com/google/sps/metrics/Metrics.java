@@ -0,0 +1,135 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request and API call metrics for this instance, kept in memory since it started and written
+ * out in the Prometheus text format. Recording never takes a lock.
+ */
+public final class Metrics {
+
+  // Quantiles reported for every latency histogram
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private static final Map<String, RouteStats> ROUTES = new ConcurrentHashMap<>();
+
+  // API call latencies by service, then by method, so recording needs no string building
+  private static final Map<String, Map<String, LatencyHistogram>> API_CALLS =
+      new ConcurrentHashMap<>();
+
+  private Metrics() {
+    // Disallow instances.
+  }
+
+  /**
+   * Records a finished request to {@code route}. Statuses of 500 and up count as errors.
+   */
+  public static void recordRequest(String route, long nanos, int status, long responseBytes) {
+    RouteStats stats = ROUTES.computeIfAbsent(route, key -> new RouteStats());
+    stats.requests.increment();
+    if (status >= 500) {
+      stats.errors.increment();
+    }
+    stats.responseBytes.add(responseBytes);
+    stats.latency.record(nanos);
+  }
+
+  /**
+   * Records one App Engine API call, such as a Datastore RunQuery.
+   */
+  public static void recordApiCall(String service, String method, long nanos) {
+    API_CALLS.computeIfAbsent(service, key -> new ConcurrentHashMap<>())
+        .computeIfAbsent(method, key -> new LatencyHistogram())
+        .record(nanos);
+  }
+
+  /**
+   * Writes every metric in the Prometheus text exposition format, version 0.0.4.
+   */
+  public static void writePrometheus(PrintWriter out) {
+    Map<String, RouteStats> routes = new TreeMap<>(ROUTES);
+
+    out.println("# HELP http_requests_total Requests handled, by route.");
+    out.println("# TYPE http_requests_total counter");
+    routes.forEach((route, stats) ->
+        sample(out, "http_requests_total", "route", route, stats.requests.sum()));
+
+    out.println(
+        "# HELP http_request_errors_total Requests that ended with a 5xx status, by route.");
+    out.println("# TYPE http_request_errors_total counter");
+    routes.forEach((route, stats) ->
+        sample(out, "http_request_errors_total", "route", route, stats.errors.sum()));
+
+    out.println("# HELP http_response_bytes_total Response body bytes written, by route.");
+    out.println("# TYPE http_response_bytes_total counter");
+    routes.forEach((route, stats) ->
+        sample(out, "http_response_bytes_total", "route", route, stats.responseBytes.sum()));
+
+    out.println("# HELP http_request_duration_seconds Request latency, by route.");
+    out.println("# TYPE http_request_duration_seconds summary");
+    routes.forEach((route, stats) ->
+        summary(out, "http_request_duration_seconds", "route=\"" + escape(route) + "\"",
+            stats.latency));
+
+    out.println("# HELP appengine_api_call_duration_seconds App Engine API call latency, such as "
+        + "Datastore RPCs, by service and method.");
+    out.println("# TYPE appengine_api_call_duration_seconds summary");
+    new TreeMap<>(API_CALLS).forEach((service, methods) ->
+        new TreeMap<>(methods).forEach((method, latency) ->
+            summary(out, "appengine_api_call_duration_seconds",
+                "service=\"" + escape(service) + "\",method=\"" + escape(method) + "\"",
+                latency)));
+  }
+
+  private static void sample(PrintWriter out, String name, String label, String value,
+      long sample) {
+    out.print(name);
+    out.print('{');
+    out.print(label);
+    out.print("=\"");
+    out.print(escape(value));
+    out.print("\"} ");
+    out.println(sample);
+  }
+
+  private static void summary(PrintWriter out, String name, String labels,
+      LatencyHistogram latency) {
+    for (double quantile : QUANTILES) {
+      out.println(name + "{" + labels + ",quantile=\"" + quantile + "\"} "
+          + latency.quantileSeconds(quantile));
+    }
+    out.println(name + "_sum{" + labels + "} " + latency.sumSeconds());
+    out.println(name + "_count{" + labels + "} " + latency.count());
+  }
+
+  private static String escape(String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /** Counters and latency for one route. */
+  private static final class RouteStats {
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+  }
+}
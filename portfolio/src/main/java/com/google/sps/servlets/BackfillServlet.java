@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.CommentBackfill;
+import com.google.sps.data.JobQueue;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that starts the {@link CommentBackfill} migration, run once by an admin after deploying.
+ * Posting again reports whether it is still running, and resumes it if its worker has gone away.
+ */
+@WebServlet(urlPatterns = "/backfill", asyncSupported = true)
+public class BackfillServlet extends HttpServlet {
+
+  private static final UserService USERSERVICE = UserServiceFactory.getUserService();
+
+  // Fixes up comments stored before they carried a timestamp and a generation
+  static final CommentBackfill BACKFILL =
+      new CommentBackfill(JobQueue.named("comment-backfill"), DataServlet::commentsChanged);
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    RequestThreads.dispatch(request, response, BackfillServlet::startBackfill);
+  }
+
+  private static void startBackfill(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    // The migration rewrites and deletes comments, so only project admins may start it
+    if (!USERSERVICE.isUserLoggedIn() || !USERSERVICE.isUserAdmin()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    String state = BACKFILL.start();
+    response.setContentType("application/json;");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-store");
+
+    JsonWriter writer =
+        new JsonWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+    writer.beginObject();
+    writer.name("state").value(state);
+    writer.endObject();
+    writer.flush();
+  }
+}
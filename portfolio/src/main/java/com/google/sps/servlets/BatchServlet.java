@@ -0,0 +1,371 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.filters.ConcurrencyLimitFilter;
+import com.google.sps.filters.MetricsFilter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs several GET requests against this app in one round trip. Each {@code path} parameter names
+ * a sub-request such as {@code /data?limit=10}; they are dispatched concurrently to the servlets
+ * that normally serve them and the results come back in order as
+ * {@code {"responses":[{"path":...,"status":...,"body":...}]}}.
+ *
+ * <p>Each sub-request passes through the same {@link MetricsFilter} and
+ * {@link ConcurrencyLimitFilter} instances as a direct request to its path, so it is recorded
+ * under its own route and takes a slot from its own route group.
+ */
+@WebServlet("/batch")
+public class BatchServlet extends HttpServlet {
+
+  // Keeps a single batch from fanning out into an unbounded number of threads
+  private static final int MAX_SUB_REQUESTS = 10;
+
+  // Sub-requests of one batch that run at once, counting the batch request's own thread. The
+  // rest wait for one of those threads to free up
+  private static final int MAX_PARALLEL_SUB_REQUESTS = 4;
+
+  // Filters that wrap a direct request to a batched path, outermost first, by the context
+  // attribute each one publishes itself under
+  private static final String[] SUB_REQUEST_FILTERS =
+      {MetricsFilter.class.getName(), ConcurrencyLimitFilter.class.getName()};
+
+  // Only these paths can be batched. Each maps to its own instance of the servlet that serves it
+  private final Map<String, HttpServlet> routes = new HashMap<>();
+
+  @Override
+  public void init() throws ServletException {
+    routes.put("/data", new DataServlet());
+    routes.put("/login", new LoginServlet());
+    routes.put("/delete-data/status", new PurgeStatusServlet());
+    for (HttpServlet servlet : routes.values()) {
+      servlet.init(getServletConfig());
+    }
+  }
+
+  @Override
+  public void destroy() {
+    for (HttpServlet servlet : routes.values()) {
+      servlet.destroy();
+    }
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String[] paths = request.getParameterValues("path");
+    if (paths == null || paths.length == 0 || paths.length > MAX_SUB_REQUESTS) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "Expected between 1 and " + MAX_SUB_REQUESTS + " path parameters");
+      return;
+    }
+
+    List<SubRequest> subRequests = new ArrayList<>(paths.length);
+    for (String path : paths) {
+      SubRequest subRequest = SubRequest.parse(request, path);
+      if (subRequest == null || !routes.containsKey(subRequest.getServletPath())) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Cannot batch " + path);
+        return;
+      }
+      subRequests.add(subRequest);
+    }
+
+    List<FutureTask<BufferedResponse>> results = new ArrayList<>(subRequests.size());
+    for (SubRequest subRequest : subRequests) {
+      results.add(new FutureTask<>(() -> dispatch(subRequest, response)));
+    }
+    List<Thread> helpers = runAll(results);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (JsonWriter json =
+        new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+      json.beginObject().name("responses").beginArray();
+      for (int i = 0; i < subRequests.size(); i++) {
+        writeResult(json, paths[i], results.get(i));
+      }
+      json.endArray().endObject();
+    } finally {
+      joinAll(helpers);
+    }
+
+    response.setContentType("application/json;");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-store");
+    response.setContentLength(bytes.size());
+    bytes.writeTo(response.getOutputStream());
+  }
+
+  /*
+   * Starts running {@code tasks} on up to {@code MAX_PARALLEL_SUB_REQUESTS} threads, the calling
+   * thread included, each taking the next task that has not started. Returns once the calling
+   * thread runs out of tasks, along with the other threads, which may still be finishing theirs.
+   * Those are request threads: they share the batch request's App Engine environment, including
+   * the user's session, and may not outlive it.
+   */
+  private static List<Thread> runAll(List<? extends Runnable> tasks) {
+    AtomicInteger next = new AtomicInteger();
+    Runnable worker = () -> {
+      for (int i = next.getAndIncrement(); i < tasks.size(); i = next.getAndIncrement()) {
+        tasks.get(i).run();
+      }
+    };
+    ThreadFactory threads = ThreadManager.currentRequestThreadFactory();
+    List<Thread> helpers = new ArrayList<>();
+    for (int i = 1; i < Math.min(tasks.size(), MAX_PARALLEL_SUB_REQUESTS); i++) {
+      Thread helper = threads.newThread(worker);
+      helper.start();
+      helpers.add(helper);
+    }
+    worker.run();
+    return helpers;
+  }
+
+  private static void joinAll(List<Thread> threads) {
+    try {
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /*
+   * Runs one sub-request through the filters and its servlet and returns what was written.
+   */
+  private BufferedResponse dispatch(SubRequest subRequest, HttpServletResponse response)
+      throws IOException, ServletException {
+    BufferedResponse buffered = new BufferedResponse(response);
+    filterChain(routes.get(subRequest.getServletPath())).doFilter(subRequest, buffered);
+    return buffered;
+  }
+
+  /*
+   * Returns a chain that runs the sub-request filters that are deployed and then {@code servlet}.
+   */
+  private FilterChain filterChain(HttpServlet servlet) {
+    FilterChain chain = servlet::service;
+    for (int i = SUB_REQUEST_FILTERS.length - 1; i >= 0; i--) {
+      Filter filter = (Filter) getServletContext().getAttribute(SUB_REQUEST_FILTERS[i]);
+      if (filter != null) {
+        FilterChain next = chain;
+        chain = (request, response) -> filter.doFilter(request, response, next);
+      }
+    }
+    return chain;
+  }
+
+  /*
+   * Writes one entry of the envelope. JSON bodies are embedded as they are, anything else as a
+   * string. A sub-request that threw is reported as a 500 without failing the whole batch.
+   */
+  private static void writeResult(JsonWriter json, String path, Future<BufferedResponse> result)
+      throws IOException {
+    json.beginObject().name("path").value(path);
+    try {
+      BufferedResponse buffered = result.get();
+      byte[] body = buffered.getBody();
+      json.name("status").value(buffered.getStatus());
+      if (body.length > 0) {
+        String text = new String(body, StandardCharsets.UTF_8);
+        String contentType = buffered.getContentType();
+        json.name("body");
+        if (contentType != null && contentType.startsWith("application/json")) {
+          json.jsonValue(text);
+        } else {
+          json.value(text);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      json.name("status").value(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    } catch (ExecutionException e) {
+      json.name("status").value(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+    json.endObject();
+  }
+
+  /**
+   * A GET for another path in this app, seen through the batch request it arrived in. Headers
+   * and the user's session come from the batch request; the path and parameters are its own.
+   */
+  private static final class SubRequest extends HttpServletRequestWrapper {
+
+    private final String servletPath;
+    private final String queryString;
+    private final Map<String, String[]> parameters;
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    private SubRequest(HttpServletRequest request, String servletPath, String queryString,
+        Map<String, String[]> parameters) {
+      super(request);
+      this.servletPath = servletPath;
+      this.queryString = queryString;
+      this.parameters = Collections.unmodifiableMap(parameters);
+    }
+
+    /*
+     * Splits a path such as /data?limit=10 into its parts. Returns null if it is not a local path.
+     */
+    static SubRequest parse(HttpServletRequest request, String path)
+        throws UnsupportedEncodingException {
+      if (!path.startsWith("/") || path.startsWith("//")) {
+        return null;
+      }
+      int question = path.indexOf('?');
+      String servletPath = question < 0 ? path : path.substring(0, question);
+      String queryString = question < 0 ? null : path.substring(question + 1);
+
+      Map<String, List<String>> values = new LinkedHashMap<>();
+      if (queryString != null && !queryString.isEmpty()) {
+        for (String pair : queryString.split("&")) {
+          int equals = pair.indexOf('=');
+          String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+          String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+          values.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+      }
+      Map<String, String[]> parameters = new LinkedHashMap<>();
+      values.forEach((name, list) -> parameters.put(name, list.toArray(new String[0])));
+      return new SubRequest(request, servletPath, queryString, parameters);
+    }
+
+    @Override
+    public String getMethod() {
+      return "GET";
+    }
+
+    @Override
+    public String getServletPath() {
+      return servletPath;
+    }
+
+    @Override
+    public String getPathInfo() {
+      return null;
+    }
+
+    @Override
+    public String getRequestURI() {
+      return getContextPath() + servletPath;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+      StringBuffer url = super.getRequestURL();
+      url.setLength(url.length() - super.getRequestURI().length());
+      return url.append(getRequestURI());
+    }
+
+    @Override
+    public String getQueryString() {
+      return queryString;
+    }
+
+    @Override
+    public String getParameter(String name) {
+      String[] values = parameters.get(name);
+      return values == null ? null : values[0];
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+      return parameters;
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+      return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+      return parameters.get(name);
+    }
+
+    // The batch response carries no per-path validators or encodings, so sub-requests never
+    // ask for a 304 or a compressed body
+    @Override
+    public String getHeader(String name) {
+      return isConditional(name) ? null : super.getHeader(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+      return isConditional(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+    }
+
+    private static boolean isConditional(String name) {
+      return name.equalsIgnoreCase("If-None-Match")
+          || name.equalsIgnoreCase("If-Modified-Since")
+          || name.equalsIgnoreCase("Accept-Encoding");
+    }
+
+    // Sub-requests run side by side, so each keeps its own attributes
+    @Override
+    public Object getAttribute(String name) {
+      Object value = attributes.get(name);
+      return value != null ? value : super.getAttribute(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+      attributes.put(name, value);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+      attributes.remove(name);
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+      return false;
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+      return false;
+    }
+  }
+}
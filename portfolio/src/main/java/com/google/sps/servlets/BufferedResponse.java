@@ -0,0 +1,230 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response that keeps the status, headers and body in memory instead of sending them, so that a
+ * servlet can be run as a sub-request and its output embedded in another response. Nothing is
+ * passed through to the wrapped response.
+ */
+final class BufferedResponse extends HttpServletResponseWrapper {
+
+  private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+  private final Map<String, String> headers = new HashMap<>();
+  private int status = SC_OK;
+  private String contentType;
+  private String characterEncoding = StandardCharsets.UTF_8.name();
+  private PrintWriter writer;
+
+  private final ServletOutputStream stream = new ServletOutputStream() {
+    @Override
+    public void write(int b) {
+      body.write(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      body.write(bytes, offset, length);
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    // Writes only go to memory and never block, so the stream is ready straight away
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      try {
+        writeListener.onWritePossible();
+      } catch (IOException e) {
+        writeListener.onError(e);
+      }
+    }
+  };
+
+  BufferedResponse(HttpServletResponse response) {
+    super(response);
+  }
+
+  /**
+   * Returns everything written to the response so far.
+   */
+  byte[] getBody() {
+    if (writer != null) {
+      writer.flush();
+    }
+    return body.toByteArray();
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() {
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws UnsupportedEncodingException {
+    if (writer == null) {
+      writer = new PrintWriter(new OutputStreamWriter(stream, characterEncoding));
+    }
+    return writer;
+  }
+
+  @Override
+  public void setStatus(int status) {
+    this.status = status;
+  }
+
+  @Override
+  public int getStatus() {
+    return status;
+  }
+
+  @Override
+  public void sendError(int status) {
+    sendError(status, null);
+  }
+
+  @Override
+  public void sendError(int status, String message) {
+    this.status = status;
+    body.reset();
+    if (message != null) {
+      contentType = "text/plain";
+      byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+      body.write(bytes, 0, bytes.length);
+    }
+  }
+
+  @Override
+  public void sendRedirect(String location) {
+    status = SC_FOUND;
+    headers.put("Location", location);
+  }
+
+  @Override
+  public void setHeader(String name, String value) {
+    headers.put(name, value);
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    headers.merge(name, value, (existing, added) -> existing + ", " + added);
+  }
+
+  @Override
+  public void setIntHeader(String name, int value) {
+    setHeader(name, Integer.toString(value));
+  }
+
+  @Override
+  public void addIntHeader(String name, int value) {
+    addHeader(name, Integer.toString(value));
+  }
+
+  @Override
+  public void setDateHeader(String name, long date) {
+    setHeader(name, Long.toString(date));
+  }
+
+  @Override
+  public void addDateHeader(String name, long date) {
+    addHeader(name, Long.toString(date));
+  }
+
+  @Override
+  public boolean containsHeader(String name) {
+    return headers.containsKey(name);
+  }
+
+  @Override
+  public String getHeader(String name) {
+    return headers.get(name);
+  }
+
+  @Override
+  public Collection<String> getHeaderNames() {
+    return headers.keySet();
+  }
+
+  @Override
+  public void setContentType(String contentType) {
+    this.contentType = contentType;
+  }
+
+  @Override
+  public String getContentType() {
+    return contentType;
+  }
+
+  @Override
+  public void setCharacterEncoding(String characterEncoding) {
+    this.characterEncoding = characterEncoding;
+  }
+
+  @Override
+  public String getCharacterEncoding() {
+    return characterEncoding;
+  }
+
+  @Override
+  public void setContentLength(int length) {}
+
+  @Override
+  public void setContentLengthLong(long length) {}
+
+  @Override
+  public void setBufferSize(int size) {}
+
+  @Override
+  public void flushBuffer() {
+    if (writer != null) {
+      writer.flush();
+    }
+  }
+
+  @Override
+  public boolean isCommitted() {
+    return false;
+  }
+
+  @Override
+  public void resetBuffer() {
+    body.reset();
+  }
+
+  @Override
+  public void reset() {
+    body.reset();
+    headers.clear();
+    status = SC_OK;
+    contentType = null;
+  }
+}
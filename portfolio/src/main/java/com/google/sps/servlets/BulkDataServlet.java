@@ -0,0 +1,262 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.CommentGeneration;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that imports many comments at once. The request body is either a JSON array of
+ * {"name": ..., "message": ..., "timestamp": ...} objects or the same objects as newline-delimited
+ * JSON. Valid comments are written in batches of {@code BATCH_SIZE} with one Datastore RPC per
+ * batch, and the response reports the outcome of every item by its position in the input. The
+ * optional timestamp (milliseconds since the epoch) keeps backfilled history in its original
+ * order. Items without one all get the time the import started; the feed breaks ties between equal
+ * timestamps by key.
+ */
+@WebServlet(urlPatterns = "/bulk-data", asyncSupported = true)
+public class BulkDataServlet extends HttpServlet {
+
+  // Datastore accepts at most 500 entities in a single put
+  private static final int BATCH_SIZE = 500;
+
+  // Indexed string properties are limited to 1500 bytes
+  private static final int MAX_PROPERTY_BYTES = 1500;
+
+  private static final DatastoreService DATASTORE = DatastoreServiceFactory.getDatastoreService();
+
+  private static final UserService USERSERVICE = UserServiceFactory.getUserService();
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    RequestThreads.dispatch(request, response, this::importComments);
+  }
+
+  private void importComments(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    // Bulk writes bypass the comment form, so only project admins may use them
+    if (!USERSERVICE.isUserLoggedIn() || !USERSERVICE.isUserAdmin()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    JsonReader reader = new JsonReader(request.getReader());
+    // Lenient mode lets the reader accept several top-level values, which is what NDJSON is
+    reader.setLenient(true);
+
+    response.setContentType("application/json;");
+    response.setCharacterEncoding("UTF-8");
+    JsonWriter writer =
+        new JsonWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+
+    BatchWriter batch = new BatchWriter(writer);
+    writer.beginObject();
+    writer.name("results");
+    writer.beginArray();
+    try {
+      boolean isArray = reader.peek() == JsonToken.BEGIN_ARRAY;
+      if (isArray) {
+        reader.beginArray();
+      }
+      // Imported comments join the generation that is visible when the import starts
+      long generation = CommentGeneration.current();
+      long startedAt = System.currentTimeMillis();
+      int index = 0;
+      while (isArray ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT) {
+        readComment(reader, index, startedAt, generation, batch);
+        index++;
+      }
+      if (isArray) {
+        reader.endArray();
+      }
+      batch.flush();
+    } catch (IOException | JsonParseException | IllegalStateException e) {
+      // The body is not valid JSON past this point; report what was read so far
+      batch.flush();
+      writer.endArray();
+      writer.name("error").value("Malformed request body: " + e.getMessage());
+      finish(writer, batch);
+      return;
+    }
+    writer.endArray();
+    finish(writer, batch);
+  }
+
+  private void finish(JsonWriter writer, BatchWriter batch) throws IOException {
+    writer.name("written").value(batch.written);
+    writer.name("failed").value(batch.failed);
+    writer.endObject();
+    writer.flush();
+
+    if (batch.written > 0) {
+      DataServlet.commentsChanged();
+    }
+  }
+
+  /*
+   * Reads one comment object from {@code reader}. Valid comments are queued on {@code batch} and
+   * invalid ones are reported immediately. A comment without a timestamp of its own gets
+   * {@code defaultTimestamp}.
+   */
+  private void readComment(JsonReader reader, int index, long defaultTimestamp, long generation,
+      BatchWriter batch) throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      reader.skipValue();
+      batch.reportError(index, "Expected a JSON object");
+      return;
+    }
+
+    String name = "Anonymous";
+    String message = null;
+    long timestamp = defaultTimestamp;
+    String error = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String property = reader.nextName();
+      if (property.equals("timestamp")) {
+        try {
+          timestamp = reader.nextLong();
+        } catch (IllegalStateException | NumberFormatException e) {
+          reader.skipValue();
+          error = "\"timestamp\" must be a whole number of milliseconds";
+        }
+        continue;
+      }
+      if (!property.equals("name") && !property.equals("message")) {
+        reader.skipValue();
+        continue;
+      }
+      if (reader.peek() != JsonToken.STRING) {
+        reader.skipValue();
+        error = "\"" + property + "\" must be a string";
+        continue;
+      }
+      if (property.equals("name")) {
+        name = reader.nextString();
+      } else {
+        message = reader.nextString();
+      }
+    }
+    reader.endObject();
+
+    if (error == null) {
+      error = validate(name, message);
+    }
+    if (error != null) {
+      batch.reportError(index, error);
+      return;
+    }
+
+    Entity commentEntity = new Entity("Comment");
+    commentEntity.setProperty("name", name);
+    commentEntity.setProperty("message", message);
+    commentEntity.setProperty("timestamp", timestamp);
+    commentEntity.setProperty("generation", generation);
+    batch.add(index, commentEntity);
+  }
+
+  /*
+   * Returns a description of what is wrong with the comment, or null if it can be stored.
+   */
+  private String validate(String name, String message) {
+    if (message == null || message.isEmpty()) {
+      return "\"message\" is required";
+    }
+    if (message.getBytes(StandardCharsets.UTF_8).length > MAX_PROPERTY_BYTES) {
+      return "\"message\" is longer than " + MAX_PROPERTY_BYTES + " bytes";
+    }
+    if (name.getBytes(StandardCharsets.UTF_8).length > MAX_PROPERTY_BYTES) {
+      return "\"name\" is longer than " + MAX_PROPERTY_BYTES + " bytes";
+    }
+    return null;
+  }
+
+  /** Collects valid comments and writes them to the Datastore one full batch at a time. */
+  private static final class BatchWriter {
+    private final JsonWriter results;
+    private final List<Integer> indexes = new ArrayList<>(BATCH_SIZE);
+    private final List<Entity> entities = new ArrayList<>(BATCH_SIZE);
+    private int written = 0;
+    private int failed = 0;
+
+    private BatchWriter(JsonWriter results) {
+      this.results = results;
+    }
+
+    private void add(int index, Entity entity) throws IOException {
+      indexes.add(index);
+      entities.add(entity);
+      if (entities.size() == BATCH_SIZE) {
+        flush();
+      }
+    }
+
+    private void flush() throws IOException {
+      if (entities.isEmpty()) {
+        return;
+      }
+      String error = null;
+      try {
+        DATASTORE.put(entities);
+      } catch (RuntimeException e) {
+        error = "Datastore write failed: " + e.getMessage();
+      }
+      for (int index : indexes) {
+        if (error == null) {
+          reportSuccess(index);
+        } else {
+          reportError(index, error);
+        }
+      }
+      indexes.clear();
+      entities.clear();
+    }
+
+    private void reportSuccess(int index) throws IOException {
+      written++;
+      results.beginObject();
+      results.name("index").value(index);
+      results.name("status").value("ok");
+      results.endObject();
+    }
+
+    private void reportError(int index, String error) throws IOException {
+      failed++;
+      results.beginObject();
+      results.name("index").value(index);
+      results.name("status").value("error");
+      results.name("error").value(error);
+      results.endObject();
+    }
+  }
+}
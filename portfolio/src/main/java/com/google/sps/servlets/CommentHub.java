@@ -0,0 +1,185 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.Comment;
+import com.google.sps.data.JsonCodec;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * Fan-out hub for the comment event stream. Subscribers are parked async requests, so an idle
+ * connection costs a map entry rather than a thread. Events are written with non-blocking I/O:
+ * each subscriber has a small queue of events that is drained only while its connection can take
+ * more, so a slow client never holds up the others. A subscriber whose queue fills up is dropped;
+ * its browser reconnects and catches up with a poll. Only subscribers connected to this instance
+ * are notified.
+ */
+final class CommentHub {
+
+  private static final Logger LOGGER = Logger.getLogger(CommentHub.class.getName());
+
+  // Events a subscriber may fall behind by before it is dropped
+  private static final int MAX_PENDING_EVENTS = 32;
+
+  private static final Map<AsyncContext, Subscriber> SUBSCRIBERS = new ConcurrentHashMap<>();
+
+  private CommentHub() {
+    // Disallow instances.
+  }
+
+  /**
+   * Registers a started async request as a subscriber until it completes, times out or fails.
+   * {@code preamble} is written ahead of any event, once the connection can take it.
+   */
+  static void subscribe(AsyncContext asyncContext, byte[] preamble) throws IOException {
+    asyncContext.addListener(new AsyncListener() {
+      @Override
+      public void onComplete(AsyncEvent event) {
+        SUBSCRIBERS.remove(asyncContext);
+      }
+
+      @Override
+      public void onTimeout(AsyncEvent event) {
+        // The browser's EventSource reconnects on its own once the stream ends
+        unsubscribe(asyncContext);
+      }
+
+      @Override
+      public void onError(AsyncEvent event) {
+        unsubscribe(asyncContext);
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) {}
+    });
+    Subscriber subscriber =
+        new Subscriber(asyncContext, asyncContext.getResponse().getOutputStream());
+    subscriber.pending.add(preamble);
+    // The container calls onWritePossible as soon as the stream can be written to. Publishers only
+    // see the subscriber after this, so every write they trigger is non-blocking
+    subscriber.out.setWriteListener(subscriber);
+    SUBSCRIBERS.put(asyncContext, subscriber);
+  }
+
+  /**
+   * Sends {@code commentEntity} to every current subscriber as one SSE event. Never blocks: the
+   * event is queued and written as each connection allows.
+   */
+  static void publish(Entity commentEntity) {
+    if (SUBSCRIBERS.isEmpty()) {
+      return;
+    }
+    byte[] event;
+    try {
+      event = toEvent(commentEntity);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Could not serialize comment event", e);
+      return;
+    }
+    for (Subscriber subscriber : SUBSCRIBERS.values()) {
+      if (subscriber.pending.offer(event)) {
+        subscriber.drain();
+      } else {
+        // Too far behind to catch up; it reconnects and polls for what it missed
+        unsubscribe(subscriber.asyncContext);
+      }
+    }
+  }
+
+  private static byte[] toEvent(Entity commentEntity) throws IOException {
+    StringWriter json = new StringWriter();
+    try (JsonWriter writer = new JsonWriter(json)) {
+      JsonCodec.COMMENT.write(writer, Comment.fromEntity(commentEntity));
+    }
+    // JsonWriter escapes line breaks inside strings, so the payload always fits one data line
+    return ("event: comment\ndata: " + json + "\n\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void unsubscribe(AsyncContext asyncContext) {
+    if (SUBSCRIBERS.remove(asyncContext) != null) {
+      try {
+        asyncContext.complete();
+      } catch (IllegalStateException e) {
+        // Already completed by the container
+      }
+    }
+  }
+
+  /** One connected stream and the events waiting to be written to it. */
+  private static final class Subscriber implements WriteListener {
+    final AsyncContext asyncContext;
+    final ServletOutputStream out;
+    final BlockingQueue<byte[]> pending = new ArrayBlockingQueue<>(MAX_PENDING_EVENTS);
+
+    // Set once events have been written but not yet flushed to the client
+    private boolean unflushed;
+
+    Subscriber(AsyncContext asyncContext, ServletOutputStream out) {
+      this.asyncContext = asyncContext;
+      this.out = out;
+    }
+
+    @Override
+    public void onWritePossible() {
+      drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      unsubscribe(asyncContext);
+    }
+
+    /*
+     * Writes queued events and flushes them for as long as the connection is ready. When it stops
+     * being ready, the container calls onWritePossible once it can take more. Called from both
+     * publishers and the container, so one caller drains at a time.
+     */
+    synchronized void drain() {
+      try {
+        while (out.isReady()) {
+          byte[] event = pending.poll();
+          if (event != null) {
+            out.write(event);
+            unflushed = true;
+          } else if (unflushed) {
+            unflushed = false;
+            out.flush();
+          } else {
+            return;
+          }
+        }
+      } catch (IOException | IllegalStateException e) {
+        // The client has disconnected or the request has already finished
+        unsubscribe(asyncContext);
+      }
+    }
+  }
+}
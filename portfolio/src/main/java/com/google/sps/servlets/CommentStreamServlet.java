@@ -0,0 +1,67 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.AsyncContext;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that pushes newly posted comments to the browser as Server-Sent Events. This is a
+ * development feature, off unless the {@code comments.stream} system property is true.
+ *
+ * <p>The App Engine standard Java 8 runtime buffers the whole response and sends it only once the
+ * request ends, so a deployed instance cannot stream, and there the page polls /data for new
+ * comments. That polling is the production path. While the stream is off the servlet answers
+ * 204 No Content, which tells the browser's EventSource not to reconnect and sends the page
+ * straight to polling. Turn it on only where responses are flushed as they are written, such as
+ * the local Jetty runner.
+ */
+@WebServlet(urlPatterns = "/comments-stream", asyncSupported = true)
+public class CommentStreamServlet extends HttpServlet {
+
+  // Streams are closed after this long so dead connections are reclaimed; browsers reconnect
+  private static final long STREAM_TIMEOUT_MILLIS = 55_000;
+
+  // Tells the browser how long to wait before reconnecting after the stream closes
+  private static final int RECONNECT_DELAY_MILLIS = 1_000;
+
+  // Set by runners that can flush a response while it is being written
+  private static final boolean ENABLED = Boolean.getBoolean("comments.stream");
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!ENABLED) {
+      response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+      return;
+    }
+    response.setContentType("text/event-stream");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(STREAM_TIMEOUT_MILLIS);
+
+    // The reconnect delay goes out first, which also sends the headers so the browser sees an open
+    // stream
+    CommentHub.subscribe(asyncContext,
+        ("retry: " + RECONNECT_DELAY_MILLIS + "\n\n").getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -14,16 +14,44 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.gson.Gson;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentGeneration;
+import com.google.sps.data.CommentPage;
+import com.google.sps.data.CommentVersion;
+import com.google.sps.data.JsonCodec;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -31,30 +59,256 @@ import javax.servlet.http.HttpServletResponse;
 
 /** Servlet that returns that stores and retrieves comments from the Datastore. */
 
-@WebServlet("/data")
+@WebServlet(urlPatterns = "/data", asyncSupported = true)
 public class DataServlet extends HttpServlet {
-  // Creates a query that retrieves all the comment entities in the Datastore
-  private static final Query QUERY = new Query("Comment").addSort("message", SortDirection.DESCENDING);
+  private static final Logger LOGGER = Logger.getLogger(DataServlet.class.getName());
+
+  // When set in appengine-web.xml, listings fetch only the displayed properties with a projection
+  // query instead of whole entities. Needs the composite indexes in datastore-indexes.xml, and
+  // skips comments whose name or message is stored unindexed
+  private static final boolean USE_PROJECTION = Boolean.getBoolean("comments.useProjection");
 
   // Creates an instance of the Datastore so that comments can be retrieved, updated, and deleted
   private static final DatastoreService DATASTORE = DatastoreServiceFactory.getDatastoreService();
 
-  // Gives access to all comment entities
-  private static final PreparedQuery RESULTS = DATASTORE.prepare(QUERY);
+  // Number of comments returned when the request does not ask for a page size
+  private static final int DEFAULT_PAGE_SIZE = 10;
+
+  // Upper bound on the page size so a single request never walks the whole kind
+  private static final int MAX_PAGE_SIZE = 100;
+
+  // Caches serialized pages on this instance. Entries expire so that other instances' writes
+  // show up
+  static final CommentCache CACHE =
+      new CommentCache(/* maxEntries= */ 256, /* ttlMillis= */ 30_000);
+
+  // Posted comments waiting to be written. Once the queue is full posts get a 429
+  private static final int MAX_PENDING_WRITES = 64;
+  private static final BlockingQueue<PendingPost> PENDING_POSTS =
+      new ArrayBlockingQueue<>(MAX_PENDING_WRITES);
+
+  // Set while one posting request stores everything queued with a single Datastore put
+  private static final AtomicBoolean WRITING = new AtomicBoolean();
 
+  // How long a waiting post sleeps before checking whether it should take over the writing
+  private static final long WRITE_POLL_MILLIS = 10;
+
+  // Seconds a client is asked to wait before retrying a rejected post
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  // Number of entities fetched per Datastore batch while streaming the whole feed
+  private static final int STREAM_CHUNK_SIZE = 100;
+
+  /*
+   * Returns one page of comments. The optional {@code limit} parameter sets the page size and the
+   * optional {@code cursor} parameter is the opaque token returned with the previous page.
+   * With {@code since=<timestamp>&after=<id>} only comments that come after that comment are
+   * returned, oldest first, so that polling clients fetch just the new rows. Comments are ordered
+   * by timestamp and then by id, so ones posted in the same millisecond are neither skipped nor
+   * repeated; {@code after} may be left out to get everything newer than the timestamp. A full
+   * page means there may be more, and the client asks again from the last comment it got. With
+   * {@code stream=true} the whole feed is written as one ordered array instead.
+   *
+   * Every response carries the current comment version as its ETag, and a request whose
+   * If-None-Match already names that version is answered with a 304 without touching the Datastore.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    HashMap<Object, Object> comments = new HashMap<Object, Object>();
-    for (Entity entity : RESULTS.asIterable()) {
-      comments.put(entity.getProperty("name"), entity.getProperty("message"));
+    RequestThreads.dispatch(request, response, this::getComments);
+  }
+
+  private void getComments(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    long version = CommentVersion.current();
+    if (version != CommentVersion.UNKNOWN) {
+      String etag = "\"" + version + "\"";
+      response.setHeader("ETag", etag);
+      // Make browsers revalidate on every load instead of guessing a freshness lifetime
+      response.setHeader("Cache-Control", "no-cache");
+      if (ETags.matches(request, etag)) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+    }
+
+    if (Boolean.parseBoolean(request.getParameter("stream"))) {
+      streamAllComments(response);
+      return;
+    }
+
+    int limit;
+    String since;
+    Long sinceTimestamp = null;
+    String after;
+    Key afterKey = null;
+    String cursor;
+    Cursor startCursor = null;
+    try {
+      limit = getPageSize(request);
+      since = getParameter(request, "since", "");
+      if (!since.isEmpty()) {
+        sinceTimestamp = Long.parseLong(since);
+      }
+      after = getParameter(request, "after", "");
+      if (!after.isEmpty()) {
+        afterKey = KeyFactory.stringToKey(after);
+      }
+      cursor = getParameter(request, "cursor", "");
+      if (!cursor.isEmpty()) {
+        startCursor = Cursor.fromWebSafeString(cursor);
+      }
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+
+    // Keying on the version lets this instance pick up writes made on other instances right away
+    String cacheKey = version + "|" + limit + ":" + since + ":" + after + ":" + cursor;
+    byte[] json = CACHE.get(cacheKey);
+    if (json == null) {
+      long cacheVersion = CACHE.version();
+      long generation = CommentGeneration.current();
+      if (sinceTimestamp != null) {
+        json = writePage(loadNewer(generation, sinceTimestamp, afterKey, limit), null);
+      } else {
+        FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+        if (startCursor != null) {
+          fetchOptions.startCursor(startCursor);
+        }
+        QueryResultList<Entity> results =
+            DATASTORE.prepare(feedQuery(generation)).asQueryResultList(fetchOptions);
+        // A short page means the feed is exhausted, so there is nothing left to point at
+        String nextCursor =
+            results.size() == limit ? results.getCursor().toWebSafeString() : null;
+        json = writePage(results, nextCursor);
+      }
+      CACHE.put(cacheKey, json, cacheVersion);
     }
 
-    String json = new Gson().toJson(comments);
     response.setContentType("application/json;");
-    response.getWriter().println(json);
+    response.setCharacterEncoding("UTF-8");
+    response.setContentLength(json.length);
+    response.getOutputStream().write(json);
   }
 
+  /*
+   * Returns a query for the comments in {@code generation}, newest first. Comments from earlier
+   * generations have been cleared and are waiting to be swept up, so they are left out.
+   */
+  private Query feedQuery(long generation) {
+    return displayedProperties(new Query("Comment")
+        .setFilter(new FilterPredicate("generation", FilterOperator.EQUAL, generation))
+        .addSort("timestamp", SortDirection.DESCENDING));
+  }
+
+  /*
+   * Returns up to {@code limit} comments in {@code generation} that come after the comment with
+   * {@code timestamp} and {@code afterKey} in (timestamp, key) order, oldest first. Without
+   * {@code afterKey} every comment at {@code timestamp} counts as already seen.
+   */
+  private List<Entity> loadNewer(long generation, long timestamp, Key afterKey, int limit) {
+    List<Entity> results = new ArrayList<>(limit);
+    if (afterKey != null) {
+      results.addAll(DATASTORE.prepare(sameTimestampAfter(generation, timestamp, afterKey))
+          .asList(FetchOptions.Builder.withLimit(limit)));
+    }
+    if (results.size() < limit) {
+      results.addAll(DATASTORE.prepare(newerThan(generation, timestamp))
+          .asList(FetchOptions.Builder.withLimit(limit - results.size())));
+    }
+    return results;
+  }
+
+  /*
+   * Returns a query for the comments in {@code generation} posted at exactly {@code timestamp}
+   * whose key sorts after {@code afterKey}. A projection cannot include a property that is filtered
+   * for equality, so this one always loads whole entities; it rarely matches more than a few.
+   */
+  private Query sameTimestampAfter(long generation, long timestamp, Key afterKey) {
+    return new Query("Comment")
+        .setFilter(CompositeFilterOperator.and(
+            new FilterPredicate("generation", FilterOperator.EQUAL, generation),
+            new FilterPredicate("timestamp", FilterOperator.EQUAL, timestamp),
+            new FilterPredicate(Entity.KEY_RESERVED_PROPERTY, FilterOperator.GREATER_THAN,
+                afterKey)))
+        .addSort(Entity.KEY_RESERVED_PROPERTY, SortDirection.ASCENDING);
+  }
+
+  /*
+   * Returns a keyset query for the comments in {@code generation} created strictly after
+   * {@code timestamp}, oldest first. Comments at the same timestamp come back in key order, which a
+   * projection would otherwise replace with the order of the projected properties.
+   */
+  private Query newerThan(long generation, long timestamp) {
+    return displayedProperties(new Query("Comment")
+        .setFilter(CompositeFilterOperator.and(
+            new FilterPredicate("generation", FilterOperator.EQUAL, generation),
+            new FilterPredicate("timestamp", FilterOperator.GREATER_THAN, timestamp)))
+        .addSort("timestamp", SortDirection.ASCENDING)
+        .addSort(Entity.KEY_RESERVED_PROPERTY, SortDirection.ASCENDING));
+  }
+
+  /*
+   * Restricts {@code query} to the properties written by {@code JsonCodec.COMMENT} when
+   * projection queries are enabled, and returns it unchanged otherwise.
+   */
+  private static Query displayedProperties(Query query) {
+    if (USE_PROJECTION) {
+      query.addProjection(new PropertyProjection("name", String.class));
+      query.addProjection(new PropertyProjection("message", String.class));
+      query.addProjection(new PropertyProjection("timestamp", Long.class));
+    }
+    return query;
+  }
+
+  /*
+   * Serializes one page of comments to UTF-8 JSON of the form {"comments": [...], "cursor": "..."}.
+   * The cursor is left out when it is null.
+   */
+  private byte[] writePage(List<Entity> entities, String cursor) throws IOException {
+    List<Comment> comments = new ArrayList<>(entities.size());
+    for (Entity entity : entities) {
+      comments.add(Comment.fromEntity(entity));
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (JsonWriter writer = newJsonWriter(bytes)) {
+      JsonCodec.COMMENT_PAGE.write(writer, new CommentPage(comments, cursor));
+    }
+    return bytes.toByteArray();
+  }
 
+  /*
+   * Writes every comment as one ordered JSON array directly onto the response. Entities are pulled
+   * from the Datastore in small batches and written as they arrive, so memory use does not grow
+   * with the number of comments.
+   */
+  private void streamAllComments(HttpServletResponse response) throws IOException {
+    response.setContentType("application/json;");
+    response.setCharacterEncoding("UTF-8");
+
+    JsonWriter writer = newJsonWriter(response.getOutputStream());
+    writer.beginArray();
+    PreparedQuery results = DATASTORE.prepare(feedQuery(CommentGeneration.current()));
+    FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(STREAM_CHUNK_SIZE);
+    for (Entity entity : results.asIterable(fetchOptions)) {
+      JsonCodec.COMMENT.write(writer, Comment.fromEntity(entity));
+    }
+    writer.endArray();
+    writer.flush();
+  }
+
+  private JsonWriter newJsonWriter(OutputStream out) {
+    return new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+  }
+
+
+  /*
+   * Stores a new comment. Posts that arrive together are written with one Datastore put: the post
+   * is queued, and whichever waiting request finds no write in progress stores everything queued
+   * so far on its own thread while the others wait for their comment to be written. When the queue
+   * is full the post is rejected with a 429.
+   */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String name = getParameter(request, "name-input", "Anonymous");
@@ -63,10 +317,118 @@ public class DataServlet extends HttpServlet {
     Entity commentEntity = new Entity("Comment");
     commentEntity.setProperty("name", name);
     commentEntity.setProperty("message", text);
+    commentEntity.setProperty("timestamp", System.currentTimeMillis());
+    commentEntity.setProperty("generation", CommentGeneration.current());
+
+    PendingPost post = new PendingPost(commentEntity);
+    if (!PENDING_POSTS.offer(post)) {
+      response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+      response.sendError(429, "Too many comments are being posted, please try again");
+      return;
+    }
+
+    if (awaitStored(post)) {
+      CommentHub.publish(commentEntity);
+      response.sendRedirect("index.html");
+    } else {
+      sendServerError(response);
+    }
+  }
+
+  /*
+   * Waits until {@code post} has been written, writing the queued posts itself whenever no other
+   * request is. Returns whether the comment was stored.
+   */
+  private static boolean awaitStored(PendingPost post) {
+    while (true) {
+      if (WRITING.compareAndSet(false, true)) {
+        try {
+          storeQueued();
+        } finally {
+          WRITING.set(false);
+        }
+      }
+      try {
+        return post.stored.get(WRITE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        // Still queued behind a write in progress; check again whether it has finished
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (ExecutionException e) {
+        return false;
+      }
+    }
+  }
 
-    DATASTORE.put(commentEntity);
+  /*
+   * Writes every queued comment with one Datastore put and tells each post whether it was stored.
+   */
+  private static void storeQueued() {
+    List<PendingPost> batch = new ArrayList<>(MAX_PENDING_WRITES);
+    PENDING_POSTS.drainTo(batch);
+    if (batch.isEmpty()) {
+      return;
+    }
+    List<Entity> entities = new ArrayList<>(batch.size());
+    for (PendingPost post : batch) {
+      entities.add(post.commentEntity);
+    }
+    boolean stored;
+    try {
+      DATASTORE.put(entities);
+      commentsChanged();
+      stored = true;
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.SEVERE, "Failed to store " + entities.size() + " comments", e);
+      stored = false;
+    }
+    for (PendingPost post : batch) {
+      post.stored.complete(stored);
+    }
+  }
+
+  /** A comment post waiting in the queue, completed once the comment has been written or not. */
+  private static final class PendingPost {
+    final Entity commentEntity;
+    final CompletableFuture<Boolean> stored = new CompletableFuture<>();
+
+    PendingPost(Entity commentEntity) {
+      this.commentEntity = commentEntity;
+    }
+  }
+
+  private static void sendServerError(HttpServletResponse response) {
+    try {
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    } catch (IOException | IllegalStateException e) {
+      // The response is already committed or the client has gone away; nothing more to send
+    }
+  }
 
-    response.sendRedirect("index.html");
+  /*
+   * Drops cached pages and moves the comment version on. Call after every write to comments.
+   */
+  static void commentsChanged() {
+    CACHE.invalidateAll();
+    CommentVersion.bump();
+  }
+
+  /*
+   * Reads the {@code limit} parameter, falling back to {@code DEFAULT_PAGE_SIZE} and capping it at
+   * {@code MAX_PAGE_SIZE}. Throws an IllegalArgumentException if the value is not a positive
+   * number.
+   */
+  private int getPageSize(HttpServletRequest request) {
+    String value = request.getParameter("limit");
+    if (value == null || value.isEmpty()) {
+      return DEFAULT_PAGE_SIZE;
+    }
+    int limit = Integer.parseInt(value);
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit must be a positive number");
+    }
+    return Math.min(limit, MAX_PAGE_SIZE);
   }
 
   private String getParameter(HttpServletRequest request, String name, String defaultValue) {
@@ -12,6 +12,7 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
+
 package com.google.sps.servlets;
 
 
@@ -20,33 +21,48 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.sps.data.CommentGeneration;
+import com.google.sps.data.JobQueue;
+import com.google.sps.data.PurgeJob;
 
 
-/** Servlet that deletes comments in Datastore. */
-@WebServlet("/delete-data")
+/**
+ * Servlet that deletes comments in Datastore. Clearing the comments only moves to a new
+ * {@link CommentGeneration}, which hides every existing comment at once. The hidden comments are
+ * then deleted by a background {@link PurgeJob}, whose progress is reported by
+ * {@link PurgeStatusServlet}.
+ */
+@WebServlet(urlPatterns = "/delete-data", loadOnStartup = 1, asyncSupported = true)
 public class DeleteDataServlet extends HttpServlet {
 
-  // Creates a query that retrieves all the comment entities in the Datastore
-  private static final Query QUERY = new Query("Comment");
+  // Pause between sweeper slices so reclaiming old comments never crowds out live traffic
+  private static final long SWEEP_DELAY_MILLIS = 1_000;
 
-  // Creates an instance of the Datastore so that comments can be retrieved, updated, and deleted
-  private static final DatastoreService DATASTORE = DatastoreServiceFactory.getDatastoreService();
+  // Deletes the comments of every generation before the bound it is started with
+  static final PurgeJob SWEEPER = new PurgeJob("CommentSweeper",
+      generation -> new Query("Comment")
+          .setFilter(new FilterPredicate("generation", FilterOperator.LESS_THAN, generation)),
+      SWEEP_DELAY_MILLIS, JobQueue.named("comment-sweeper"));
 
-  // Gives access to all comment entities
-  private static final PreparedQuery RESULTS = DATASTORE.prepare(QUERY);
+  @Override
+  public void init() {
+    // Pick up a sweep that was interrupted when a previous instance shut down
+    SWEEPER.resume();
+  }
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    for (Entity entity : RESULTS.asIterable()) {
-      Key commentKey = entity.getKey();
-      DATASTORE.delete(commentKey);
-    }
+    RequestThreads.dispatch(request, response, DeleteDataServlet::clearComments);
+  }
+
+  private static void clearComments(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    long generation = CommentGeneration.advance();
+    DataServlet.commentsChanged();
+    PurgeJob.Status status = SWEEPER.start(generation);
+    PurgeStatusServlet.writeStatus(response, status);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,53 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.TaskQueueJobQueue;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that runs background job tasks pushed by the App Engine task queue, one slice per
+ * request. See {@link TaskQueueJobQueue}.
+ */
+@WebServlet(TaskQueueJobQueue.HANDLER_PATH)
+public class JobTaskServlet extends HttpServlet {
+
+  // App Engine strips this header from outside requests, so only the task queue can set it
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+  // Jobs whose tasks are pushed here. Naming them loads their owners, which sets their queues up
+  // on this instance before the first push can arrive
+  private static final List<Object> JOBS = Arrays.asList(DeleteDataServlet.SWEEPER,
+      BackfillServlet.BACKFILL);
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (request.getHeader(QUEUE_NAME_HEADER) == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    String queue = request.getParameter(TaskQueueJobQueue.QUEUE_PARAMETER);
+    if (queue == null || !TaskQueueJobQueue.run(queue)) {
+      // Any error status makes the task queue retry later
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "No job queue named " + queue);
+    }
+  }
+}
@@ -17,14 +17,18 @@ package com.google.sps.servlets;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.HashMap;
-import com.google.gson.Gson;
+import com.google.sps.data.JsonCodec;
 
-@WebServlet("/login")
+@WebServlet(urlPatterns = "/login", asyncSupported = true)
 public class LoginServlet extends HttpServlet {
 
   // Creates a string that will redirect back to the home page
@@ -33,11 +37,54 @@ public class LoginServlet extends HttpServlet {
   // Creates an instance of UserService to handle login/logout of users
   private static final UserService USERSERVICE = UserServiceFactory.getUserService();
 
+  // The login and logout URLs only depend on the scheme, host and port the page was served from,
+  // so the two possible responses are encoded once per origin and reused. The Host header comes
+  // from the client, so only this many origins are remembered
+  private static final int MAX_CACHED_ORIGINS = 16;
+  private static final Map<String, EncodedStatus> LOGIN_RESPONSES = new ConcurrentHashMap<>();
+  private static final Map<String, EncodedStatus> LOGOUT_RESPONSES = new ConcurrentHashMap<>();
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    RequestThreads.dispatch(request, response, LoginServlet::getStatus);
+  }
+
+  private static void getStatus(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    boolean loggedIn = USERSERVICE.isUserLoggedIn();
+    Map<String, EncodedStatus> responses = loggedIn ? LOGOUT_RESPONSES : LOGIN_RESPONSES;
+    String origin =
+        request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort();
+    EncodedStatus encoded = responses.get(origin);
+    if (encoded == null) {
+      encoded = encodeStatus(loggedIn);
+      if (responses.size() < MAX_CACHED_ORIGINS) {
+        responses.put(origin, encoded);
+      }
+    }
+
+    // The body depends on the user's session cookie, so it may only be cached privately
+    response.setHeader("ETag", encoded.etag);
+    response.setHeader("Cache-Control", "private, no-cache");
+    response.setHeader("Vary", "Cookie");
+    if (ETags.matches(request, encoded.etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    response.setContentType("application/json;");
+    response.setCharacterEncoding("UTF-8");
+    response.setContentLength(encoded.json.length);
+    response.getOutputStream().write(encoded.json);
+  }
+
+  /*
+   * Builds the JSON body, and its ETag, for a user who is or is not logged in.
+   */
+  private static EncodedStatus encodeStatus(boolean loggedIn) {
     String url = "";
     String status = "";
-    if (USERSERVICE.isUserLoggedIn()) {
+    if (loggedIn) {
       url = USERSERVICE.createLogoutURL(URLTOREDIRECTTO);
       status = "Logout";
     } else {
@@ -47,8 +94,17 @@ public class LoginServlet extends HttpServlet {
     HashMap<String, String> loginStatus = new HashMap<String, String>();
     loginStatus.put("url", url);
     loginStatus.put("status", status);
-    String json = new Gson().toJson(loginStatus);
-    response.setContentType("application/json;");
-    response.getWriter().println(json);
+    return new EncodedStatus(JsonCodec.GSON.toJson(loginStatus).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** A login status response encoded as UTF-8 JSON. */
+  private static final class EncodedStatus {
+    private final byte[] json;
+    private final String etag;
+
+    private EncodedStatus(byte[] json) {
+      this.json = json;
+      this.etag = "\"" + Integer.toHexString(Arrays.hashCode(json)) + "\"";
+    }
   }
-}
\ No newline at end of file
+}
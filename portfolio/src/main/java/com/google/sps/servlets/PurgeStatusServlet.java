@@ -0,0 +1,57 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.PurgeJob;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that reports the progress of the comment sweep started by {@link DeleteDataServlet}. */
+@WebServlet(urlPatterns = "/delete-data/status", asyncSupported = true)
+public class PurgeStatusServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    RequestThreads.dispatch(request, response,
+        (req, resp) -> writeStatus(resp, DeleteDataServlet.SWEEPER.status()));
+  }
+
+  /*
+   * Writes {@code status} as {"state", "deleted", "total", "ratePerSecond", "etaSeconds"}.
+   */
+  static void writeStatus(HttpServletResponse response, PurgeJob.Status status) throws IOException {
+    response.setContentType("application/json;");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-store");
+
+    JsonWriter writer =
+        new JsonWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+    writer.beginObject();
+    writer.name("state").value(status.getState());
+    writer.name("deleted").value(status.getDeleted());
+    writer.name("total").value(status.getTotal());
+    writer.name("ratePerSecond").value(status.getRatePerSecond());
+    writer.name("etaSeconds").value(status.getEtaSeconds());
+    writer.endObject();
+    writer.flush();
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import com.google.apphosting.api.ApiProxy;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Moves blocking request work off the container's thread pool. When the system property
+ * {@code requests.virtualThreads} is set and the runtime is Java 21 or later, the work runs on a
+ * virtual thread of its own, so a request waiting on Datastore no longer holds a platform thread.
+ * Otherwise it runs where it always has. The portfolio still compiles for Java 8, so the virtual
+ * thread executor is looked up reflectively.
+ */
+final class RequestThreads {
+
+  private static final Logger LOGGER = Logger.getLogger(RequestThreads.class.getName());
+
+  // Null unless virtual threads were asked for and the runtime has them
+  private static final Executor VIRTUAL_THREADS =
+      Boolean.getBoolean("requests.virtualThreads") ? newVirtualThreadExecutor() : null;
+
+  /** Request work that writes its own response. */
+  interface Handler {
+    void handle(HttpServletRequest request, HttpServletResponse response) throws IOException;
+  }
+
+  private RequestThreads() {
+    // Disallow instances.
+  }
+
+  /**
+   * Runs {@code handler} for the request on a virtual thread, completing the request once it
+   * returns. Runs it inline instead when virtual threads are off or the request cannot go async.
+   */
+  static void dispatch(HttpServletRequest request, HttpServletResponse response, Handler handler)
+      throws IOException {
+    if (VIRTUAL_THREADS == null || !request.isAsyncSupported()) {
+      handler.handle(request, response);
+      return;
+    }
+    AsyncContext asyncContext = request.startAsync(request, response);
+    VIRTUAL_THREADS.execute(withEnvironment(() -> {
+      try {
+        handler.handle(request, response);
+      } catch (IOException | RuntimeException e) {
+        LOGGER.log(Level.SEVERE, "Request to " + request.getServletPath() + " failed", e);
+        if (!response.isCommitted()) {
+          response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+      } finally {
+        asyncContext.complete();
+      }
+    }));
+  }
+
+  /*
+   * App Engine API calls need the environment of the request, which lives in a thread local.
+   */
+  private static Runnable withEnvironment(Runnable task) {
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    return () -> {
+      ApiProxy.setEnvironmentForCurrentThread(environment);
+      try {
+        task.run();
+      } finally {
+        ApiProxy.clearEnvironmentForCurrentThread();
+      }
+    };
+  }
+
+  private static Executor newVirtualThreadExecutor() {
+    try {
+      return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      LOGGER.warning("requests.virtualThreads is set but this runtime has no virtual threads");
+      return null;
+    }
+  }
+}
@@ -28,32 +28,195 @@ function addRandomFact() {
   randomFact.classList.add('visible');
 }
 
-// Retrieves comments from /data and places them in the DOM
-async function fetchComments() {
-  const response = await fetch('/data');
-  const comments = await response.json();
+// Cursor for the next page of comments, or null once the feed is exhausted
+let nextCommentsCursor = null;
+
+// Number of comments requested from /data per page
+const COMMENTS_PAGE_SIZE = 10;
+
+// Timestamp and id of the last comment fetched as new, used to ask /data only for the ones after it
+let latestComment = {timestamp: 0, id: null};
+
+// Ids of the comments on the page, so one that arrives both live and from a poll is shown once
+let shownCommentIds = new Set();
+
+// How often the page checks /data for comments posted since it last looked. This is how new
+// comments arrive on App Engine; the live stream is only served by development runners
+const COMMENTS_POLL_INTERVAL_MS = 10000;
+let commentsPollTimer = null;
+
+// Live stream of newly posted comments from /comments-stream, where the server offers one
+let commentsStream = null;
+
+// GET requests made with {batch: true} in the same task, waiting to be sent as one /batch call
+let pendingBatch = [];
+
+// Fetches a JSON resource. With {batch: true}, calls made together are collapsed into a single
+// request to /batch and each caller gets its own part of the combined response
+function fetchJson(path, options = {}) {
+  if (!options.batch) {
+    return fetch(path).then(response => response.json());
+  }
+  return new Promise((resolve, reject) => {
+    pendingBatch.push({path, resolve, reject});
+    if (pendingBatch.length === 1) {
+      setTimeout(sendBatch, 0);
+    }
+  });
+}
+
+// Sends the queued batch, or a plain request when only one call was made
+async function sendBatch() {
+  const batch = pendingBatch;
+  pendingBatch = [];
+  if (batch.length === 1) {
+    fetchJson(batch[0].path).then(batch[0].resolve, batch[0].reject);
+    return;
+  }
+  try {
+    const query = batch.map(entry => 'path=' + encodeURIComponent(entry.path)).join('&');
+    const response = await fetch('/batch?' + query);
+    const envelope = await response.json();
+    envelope.responses.forEach((result, i) => {
+      if (result.status === 200) {
+        batch[i].resolve(result.body);
+      } else {
+        batch[i].reject(new Error(result.path + ' returned ' + result.status));
+      }
+    });
+  } catch (error) {
+    batch.forEach(entry => entry.reject(error));
+  }
+}
+
+// Sets up the login link and the first page of comments, fetched together in one round trip
+function loadPage() {
+  configureLoginLink({batch: true});
+  fetchComments({batch: true});
+}
+
+// Retrieves the first page of comments from /data and places them in the DOM
+async function fetchComments(options = {}) {
   document.getElementById('comments-container').innerText = "";
-  for(var key of Object.keys(comments)){
-      let comment = document.createElement("dt");
-      let text = document.createTextNode(key + ": " + comments[key]);
-      comment.appendChild(text);
-      document.getElementById('comments-container').appendChild(comment);
+  nextCommentsCursor = null;
+  latestComment = {timestamp: 0, id: null};
+  shownCommentIds = new Set();
+  const page = await loadMoreComments(options);
+  // The feed is newest first; anything sharing its timestamp is skipped as already shown
+  if (page.comments.length > 0) {
+    latestComment = {timestamp: page.comments[0].timestamp, id: page.comments[0].id};
   }
+  subscribeToNewComments();
 }
 
-// Sends POST Request to /delete-data to delete all the comments in the
-// Datastore and removes them from the DOM
+// Starts receiving new comments as they are posted, falling back to polling without EventSource
+function subscribeToNewComments() {
+  if (!window.EventSource) {
+    startPollingNewComments();
+    return;
+  }
+  if (commentsStream !== null) {
+    return;
+  }
+  commentsStream = new EventSource('/comments-stream');
+  commentsStream.addEventListener('comment', (event) => {
+    // Shown straight away; the next poll still returns it and skips it as already shown
+    prependComment(JSON.parse(event.data));
+  });
+  // The server closes streams periodically; catch up on anything posted while reconnecting
+  commentsStream.addEventListener('open', pollNewComments);
+  // A closed stream is never retried, which is how the server says streaming is off, as it is on
+  // App Engine, so poll instead
+  commentsStream.addEventListener('error', () => {
+    if (commentsStream.readyState === EventSource.CLOSED) {
+      startPollingNewComments();
+    }
+  });
+}
+
+// Checks /data for new comments every COMMENTS_POLL_INTERVAL_MS
+function startPollingNewComments() {
+  if (commentsPollTimer === null) {
+    commentsPollTimer = setInterval(pollNewComments, COMMENTS_POLL_INTERVAL_MS);
+  }
+}
+
+// Retrieves only the comments posted after the last one fetched and adds them to the top. A full
+// page may leave more behind, so it keeps asking until a page comes back short
+async function pollNewComments() {
+  let page;
+  do {
+    let url = '/data?limit=' + COMMENTS_PAGE_SIZE + '&since=' + latestComment.timestamp;
+    if (latestComment.id) {
+      url += '&after=' + encodeURIComponent(latestComment.id);
+    }
+    page = await fetchJson(url);
+    // Results come back oldest first, so prepending each one leaves the newest on top
+    for (const comment of page.comments) {
+      latestComment = {timestamp: comment.timestamp, id: comment.id};
+      prependComment(comment);
+    }
+  } while (page.comments.length === COMMENTS_PAGE_SIZE);
+}
+
+// Retrieves the next page of comments from /data and appends them to the DOM
+async function loadMoreComments(options = {}) {
+  let url = '/data?limit=' + COMMENTS_PAGE_SIZE;
+  if (nextCommentsCursor) {
+    url += '&cursor=' + encodeURIComponent(nextCommentsCursor);
+  }
+  const page = await fetchJson(url, options);
+  for (const comment of page.comments) {
+    appendComment(comment);
+  }
+  nextCommentsCursor = page.cursor || null;
+  document.getElementById('load-more-button').hidden = !nextCommentsCursor;
+  return page;
+}
+
+// Adds a single comment to the end of the comments container, unless it is already shown
+function appendComment(comment) {
+  if (isShown(comment)) {
+    return;
+  }
+  document.getElementById('comments-container').appendChild(createCommentElement(comment));
+}
+
+// Adds a single comment to the start of the comments container, unless it is already shown
+function prependComment(comment) {
+  if (isShown(comment)) {
+    return;
+  }
+  document.getElementById('comments-container').prepend(createCommentElement(comment));
+}
+
+// Returns whether the comment is already on the page, and records it as shown if it is not
+function isShown(comment) {
+  if (shownCommentIds.has(comment.id)) {
+    return true;
+  }
+  shownCommentIds.add(comment.id);
+  return false;
+}
+
+// Builds the DOM element for a comment
+function createCommentElement(comment) {
+  let element = document.createElement("dt");
+  let text = document.createTextNode(comment.name + ": " + comment.message);
+  element.appendChild(text);
+  return element;
+}
+
+// Sends POST Request to /delete-data to clear all the comments and reloads them.
+// The old comments are hidden straight away and deleted in the background
 async function deleteComments() {
   const request = new Request('/delete-data', {method: 'POST'});
   await fetch(request);
   fetchComments();
 }
 
-
-async function configureLoginLink(){
-  const response = await fetch('/login');
-  const status = await response.text();
-  const obj = JSON.parse(status);
+async function configureLoginLink(options = {}){
+  const obj = await fetchJson('/login', options);
   const element = document.getElementById("login-button");
   element.innerText = obj.status;
   element.href = obj.url;
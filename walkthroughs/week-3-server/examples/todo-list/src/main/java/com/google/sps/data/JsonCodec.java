@@ -0,0 +1,60 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
+/**
+ * JSON for the task list that ListTasksServlet returns. Tasks are added through a form post, so
+ * the adapter only writes.
+ */
+public final class JsonCodec {
+
+  /** Writes a {@link Task} as {"id": ..., "title": ..., "timestamp": ...}. */
+  public static final TypeAdapter<Task> TASK = new TypeAdapter<Task>() {
+    @Override
+    public void write(JsonWriter writer, Task task) throws IOException {
+      if (task == null) {
+        writer.nullValue();
+        return;
+      }
+      writer.beginObject();
+      writer.name("id").value(task.getId());
+      writer.name("title").value(task.getTitle());
+      writer.name("timestamp").value(task.getTimestamp());
+      writer.endObject();
+    }
+
+    @Override
+    public Task read(JsonReader reader) {
+      throw new UnsupportedOperationException("Tasks are never read from JSON");
+    }
+  };
+
+  /** Gson that lists tasks through {@link #TASK}. */
+  public static final Gson GSON = new GsonBuilder()
+      .registerTypeAdapter(Task.class, TASK)
+      .create();
+
+  private JsonCodec() {
+    // Disallow instances.
+  }
+}
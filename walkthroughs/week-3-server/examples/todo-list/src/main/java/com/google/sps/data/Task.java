@@ -26,4 +26,16 @@ public final class Task {
     this.title = title;
     this.timestamp = timestamp;
   }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
+/**
+ * JSON for the markers that MarkerServlet sends to the map. New markers arrive as request
+ * parameters, so the adapter only writes.
+ */
+public final class JsonCodec {
+
+  /** Writes a {@link Marker} as {"lat": ..., "lng": ..., "content": ...}. */
+  public static final TypeAdapter<Marker> MARKER = new TypeAdapter<Marker>() {
+    @Override
+    public void write(JsonWriter writer, Marker marker) throws IOException {
+      if (marker == null) {
+        writer.nullValue();
+        return;
+      }
+      writer.beginObject();
+      writer.name("lat").value(marker.getLat());
+      writer.name("lng").value(marker.getLng());
+      writer.name("content").value(marker.getContent());
+      writer.endObject();
+    }
+
+    @Override
+    public Marker read(JsonReader reader) {
+      throw new UnsupportedOperationException("Markers are never read from JSON");
+    }
+  };
+
+  /** Gson that writes markers through {@link #MARKER}. */
+  public static final Gson GSON = new GsonBuilder()
+      .registerTypeAdapter(Marker.class, MARKER)
+      .create();
+
+  private JsonCodec() {
+    // Disallow instances.
+  }
+}
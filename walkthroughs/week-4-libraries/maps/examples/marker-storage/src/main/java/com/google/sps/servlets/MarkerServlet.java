@@ -19,8 +19,8 @@ import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.sps.data.JsonCodec;
 import com.google.sps.data.Marker;
-import com.google.gson.Gson;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -41,8 +41,7 @@ public class MarkerServlet extends HttpServlet {
     response.setContentType("application/json");
 
     Collection<Marker> markers = getMarkers();
-    Gson gson = new Gson();
-    String json = gson.toJson(markers);
+    String json = JsonCodec.GSON.toJson(markers);
 
     response.getWriter().println(json);
   }
@@ -0,0 +1,59 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
+/**
+ * JSON for the sightings that UfoDataServlet loads from its CSV file and sends to the map as one
+ * large array. Sightings are only ever written, as bare coordinate pairs.
+ */
+public final class JsonCodec {
+
+  /** Writes a {@link UfoSighting} as {"lat": ..., "lng": ...}. */
+  public static final TypeAdapter<UfoSighting> UFO_SIGHTING = new TypeAdapter<UfoSighting>() {
+    @Override
+    public void write(JsonWriter writer, UfoSighting sighting) throws IOException {
+      if (sighting == null) {
+        writer.nullValue();
+        return;
+      }
+      writer.beginObject();
+      writer.name("lat").value(sighting.getLat());
+      writer.name("lng").value(sighting.getLng());
+      writer.endObject();
+    }
+
+    @Override
+    public UfoSighting read(JsonReader reader) {
+      throw new UnsupportedOperationException("Sightings are never read from JSON");
+    }
+  };
+
+  /** Gson that writes sightings through {@link #UFO_SIGHTING}. */
+  public static final Gson GSON = new GsonBuilder()
+      .registerTypeAdapter(UfoSighting.class, UFO_SIGHTING)
+      .create();
+
+  private JsonCodec() {
+    // Disallow instances.
+  }
+}
@@ -14,8 +14,8 @@
 
 package com.google.sps.servlets;
 
+import com.google.sps.data.JsonCodec;
 import com.google.sps.data.UfoSighting;
-import com.google.gson.Gson;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -51,8 +51,7 @@ public class UfoDataServlet extends HttpServlet {
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     response.setContentType("application/json");
-    Gson gson = new Gson();
-    String json = gson.toJson(ufoSightings);
+    String json = JsonCodec.GSON.toJson(ufoSightings);
     response.getWriter().println(json);
   }
 }
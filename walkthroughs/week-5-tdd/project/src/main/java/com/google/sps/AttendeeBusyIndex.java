@@ -0,0 +1,93 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of when each attendee is busy, built once from a set of events so that a query only looks
+ * at the events of the people it names. Each attendee's events are merged into disjoint intervals
+ * and kept as sorted arrays of starts and ends.
+ */
+public final class AttendeeBusyIndex {
+
+  private static final int[] NONE = new int[0];
+
+  // Busy intervals per attendee: starts and ends, both in ascending order
+  private final Map<String, int[]> starts = new HashMap<>();
+  private final Map<String, int[]> ends = new HashMap<>();
+
+  public AttendeeBusyIndex(Collection<Event> events) {
+    Map<String, List<TimeRange>> timesByAttendee = new HashMap<>();
+    for (Event event : events) {
+      for (String attendee : event.getAttendees()) {
+        timesByAttendee.computeIfAbsent(attendee, key -> new ArrayList<>()).add(event.getWhen());
+      }
+    }
+
+    for (Map.Entry<String, List<TimeRange>> entry : timesByAttendee.entrySet()) {
+      List<TimeRange> times = entry.getValue();
+      Collections.sort(times, TimeRange.ORDER_BY_START);
+      int[] mergedStarts = new int[times.size()];
+      int[] mergedEnds = new int[times.size()];
+      int count = 0;
+      for (TimeRange time : times) {
+        if (count > 0 && time.start() <= mergedEnds[count - 1]) {
+          mergedEnds[count - 1] = Math.max(mergedEnds[count - 1], time.end());
+        } else {
+          mergedStarts[count] = time.start();
+          mergedEnds[count] = time.end();
+          count++;
+        }
+      }
+      starts.put(entry.getKey(), Arrays.copyOf(mergedStarts, count));
+      ends.put(entry.getKey(), Arrays.copyOf(mergedEnds, count));
+    }
+  }
+
+  /**
+   * Returns the free times for {@code request}, as {@link MeetingTimeFinder#query} would for the
+   * indexed events.
+   */
+  public Collection<TimeRange> query(MeetingRequest request) {
+    if (request.getDuration() > TimeRange.WHOLE_DAY.duration()) {
+      return new ArrayList<>();
+    }
+
+    List<SweepLineMeetingQuery.Busy> busyTimes = new ArrayList<>();
+    for (String attendee : request.getAttendees()) {
+      addBusyTimes(busyTimes, attendee, /* required= */ true);
+    }
+    for (String attendee : request.getOptionalAttendees()) {
+      addBusyTimes(busyTimes, attendee, /* required= */ false);
+    }
+    return SweepLineMeetingQuery.findFreeTimes(busyTimes, request.getDuration());
+  }
+
+  private void addBusyTimes(List<SweepLineMeetingQuery.Busy> busyTimes, String attendee,
+      boolean required) {
+    int[] attendeeStarts = starts.getOrDefault(attendee, NONE);
+    int[] attendeeEnds = ends.getOrDefault(attendee, NONE);
+    for (int i = 0; i < attendeeStarts.length; i++) {
+      busyTimes.add(new SweepLineMeetingQuery.Busy(attendeeStarts[i], attendeeEnds[i], required));
+    }
+  }
+}
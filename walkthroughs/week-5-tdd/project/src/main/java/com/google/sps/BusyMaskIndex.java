@@ -0,0 +1,146 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of when each attendee is busy, kept as one bit per minute of the day. A day is 1440
+ * minutes, so an attendee's mask is 23 longs. A query ORs together the masks of the people it
+ * names and scans the result a word at a time for runs of free minutes, so its cost depends only
+ * on the number of attendees, not on how many events they have.
+ */
+public final class BusyMaskIndex {
+
+  private static final int MINUTES = TimeRange.WHOLE_DAY.duration();
+  private static final int WORDS = (MINUTES + Long.SIZE - 1) / Long.SIZE;
+
+  private final Map<String, long[]> masks = new HashMap<>();
+
+  public BusyMaskIndex(Collection<Event> events) {
+    for (Event event : events) {
+      TimeRange when = event.getWhen();
+      for (String attendee : event.getAttendees()) {
+        setRange(masks.computeIfAbsent(attendee, key -> new long[WORDS]), when.start(),
+            Math.min(when.end(), MINUTES));
+      }
+    }
+  }
+
+  /**
+   * Returns the free times for {@code request}, as {@link MeetingTimeFinder#query} would for the
+   * indexed events.
+   */
+  public Collection<TimeRange> query(MeetingRequest request) {
+    if (request.getDuration() > MINUTES) {
+      return new ArrayList<>();
+    }
+
+    long[] requiredBusy = new long[WORDS];
+    for (String attendee : request.getAttendees()) {
+      or(requiredBusy, attendee);
+    }
+    if (request.checkForOptionalAttendees()) {
+      long[] everyoneBusy = requiredBusy.clone();
+      for (String attendee : request.getOptionalAttendees()) {
+        or(everyoneBusy, attendee);
+      }
+      List<TimeRange> availableTimes = freeRuns(everyoneBusy, request.getDuration());
+      if (!availableTimes.isEmpty()) {
+        return availableTimes;
+      }
+    }
+    return freeRuns(requiredBusy, request.getDuration());
+  }
+
+  private void or(long[] busy, String attendee) {
+    long[] mask = masks.get(attendee);
+    if (mask != null) {
+      for (int i = 0; i < WORDS; i++) {
+        busy[i] |= mask[i];
+      }
+    }
+  }
+
+  /*
+   * Returns the runs of clear bits in {@code busy} that are at least {@code duration} long.
+   */
+  private static List<TimeRange> freeRuns(long[] busy, long duration) {
+    List<TimeRange> freeTimes = new ArrayList<>();
+    int start = nextClearBit(busy, 0);
+    while (start < MINUTES) {
+      int end = nextSetBit(busy, start);
+      if (end - start >= duration) {
+        freeTimes.add(TimeRange.fromStartEnd(start, end, false));
+      }
+      start = nextClearBit(busy, end);
+    }
+    return freeTimes;
+  }
+
+  /*
+   * Sets the bits for the minutes from {@code start} up to but not including {@code end}.
+   */
+  private static void setRange(long[] words, int start, int end) {
+    if (start >= end) {
+      return;
+    }
+    int first = start / Long.SIZE;
+    int last = (end - 1) / Long.SIZE;
+    // Shifts only use the low six bits of their count, so these mask off the partial words
+    long firstMask = -1L << start;
+    long lastMask = -1L >>> -end;
+    if (first == last) {
+      words[first] |= firstMask & lastMask;
+      return;
+    }
+    words[first] |= firstMask;
+    for (int i = first + 1; i < last; i++) {
+      words[i] = -1L;
+    }
+    words[last] |= lastMask;
+  }
+
+  private static int nextSetBit(long[] words, int from) {
+    return nextBit(words, from, 0L);
+  }
+
+  private static int nextClearBit(long[] words, int from) {
+    return nextBit(words, from, -1L);
+  }
+
+  /*
+   * Returns the first minute at or after {@code from} whose bit differs from the bits in
+   * {@code flip}, or the end of the day if there is none.
+   */
+  private static int nextBit(long[] words, int from, long flip) {
+    int i = from / Long.SIZE;
+    if (i >= WORDS) {
+      return MINUTES;
+    }
+    long word = (words[i] ^ flip) & (-1L << from);
+    while (word == 0) {
+      if (++i == WORDS) {
+        return MINUTES;
+      }
+      word = words[i] ^ flip;
+    }
+    return Math.min(MINUTES, i * Long.SIZE + Long.numberOfTrailingZeros(word));
+  }
+}
@@ -20,7 +20,7 @@ import java.util.List;
 import java.util.Comparator;
 import java.util.ArrayList;
 
-public final class FindMeetingQuery {
+public final class FindMeetingQuery implements MeetingTimeFinder {
 
   /*
    * Given a list of scheduled {@code events}, query() returns a list of all available times for the 
@@ -31,6 +31,7 @@ public final class FindMeetingQuery {
    *
    * @return: a list of all available times the meeting can be held
    */
+  @Override
   public Collection<TimeRange> query(Collection<Event> events, MeetingRequest request) {
     
     /* Checks if the new meeting {@code request} is longer than a day.
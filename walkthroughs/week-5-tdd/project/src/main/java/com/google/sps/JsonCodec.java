@@ -0,0 +1,158 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * JSON exchanged with the meeting page. Events and time ranges go out to be drawn, and a meeting
+ * request comes in from the form, so each adapter handles only the direction the page uses. The
+ * field names match the classes of the same name in script.js.
+ */
+public final class JsonCodec {
+
+  /** Writes a {@code TimeRange} as {"start": ..., "duration": ...}. */
+  public static final TypeAdapter<TimeRange> TIME_RANGE = new TypeAdapter<TimeRange>() {
+    @Override
+    public void write(JsonWriter writer, TimeRange range) throws IOException {
+      if (range == null) {
+        writer.nullValue();
+        return;
+      }
+      writer.beginObject();
+      writer.name("start").value(range.start());
+      writer.name("duration").value(range.duration());
+      writer.endObject();
+    }
+
+    @Override
+    public TimeRange read(JsonReader reader) {
+      throw new UnsupportedOperationException("Time ranges are never read from JSON");
+    }
+  };
+
+  /** Writes an {@code Event} as {"title": ..., "when": ..., "attendees": [...]}. */
+  public static final TypeAdapter<Event> EVENT = new TypeAdapter<Event>() {
+    @Override
+    public void write(JsonWriter writer, Event event) throws IOException {
+      if (event == null) {
+        writer.nullValue();
+        return;
+      }
+      writer.beginObject();
+      writer.name("title").value(event.getTitle());
+      writer.name("when");
+      TIME_RANGE.write(writer, event.getWhen());
+      writer.name("attendees");
+      writeStrings(writer, event.getAttendees());
+      writer.endObject();
+    }
+
+    @Override
+    public Event read(JsonReader reader) {
+      throw new UnsupportedOperationException("Events are never read from JSON");
+    }
+  };
+
+  /**
+   * Reads a {@code MeetingRequest} from {"attendees": [...], "optional_attendees": [...],
+   * "duration": ...}. Missing lists are read as empty ones.
+   */
+  public static final TypeAdapter<MeetingRequest> MEETING_REQUEST =
+      new TypeAdapter<MeetingRequest>() {
+    @Override
+    public void write(JsonWriter writer, MeetingRequest request) {
+      throw new UnsupportedOperationException("Meeting requests are never written as JSON");
+    }
+
+    @Override
+    public MeetingRequest read(JsonReader reader) throws IOException {
+      if (reader.peek() == JsonToken.NULL) {
+        reader.nextNull();
+        return null;
+      }
+      List<String> attendees = new ArrayList<>();
+      List<String> optionalAttendees = new ArrayList<>();
+      long duration = 0;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "attendees":
+            readStrings(reader, attendees);
+            break;
+          case "optional_attendees":
+            readStrings(reader, optionalAttendees);
+            break;
+          case "duration":
+            // The page sends the duration straight from a form field, so it may be a string
+            duration = reader.nextLong();
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.endObject();
+
+      MeetingRequest request = new MeetingRequest(attendees, duration);
+      for (String attendee : optionalAttendees) {
+        request.addOptionalAttendee(attendee);
+      }
+      return request;
+    }
+  };
+
+  /** Gson shared by GetEventsServlet and QueryServlet, with the adapters above registered. */
+  public static final Gson GSON = new GsonBuilder()
+      .registerTypeAdapter(TimeRange.class, TIME_RANGE)
+      .registerTypeAdapter(Event.class, EVENT)
+      .registerTypeAdapter(MeetingRequest.class, MEETING_REQUEST)
+      .create();
+
+  private JsonCodec() {
+    // Disallow instances.
+  }
+
+  private static void writeStrings(JsonWriter writer, Collection<String> values)
+      throws IOException {
+    writer.beginArray();
+    for (String value : values) {
+      writer.value(value);
+    }
+    writer.endArray();
+  }
+
+  private static void readStrings(JsonReader reader, Collection<String> values)
+      throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return;
+    }
+    reader.beginArray();
+    while (reader.hasNext()) {
+      values.add(reader.nextString());
+    }
+    reader.endArray();
+  }
+}
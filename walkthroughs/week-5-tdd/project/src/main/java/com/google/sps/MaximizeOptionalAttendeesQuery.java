@@ -0,0 +1,120 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link MeetingTimeFinder} that, instead of dropping every optional attendee when they cannot all
+ * come, returns the times when all the required attendees and as many optional attendees as
+ * possible are free.
+ *
+ * <p>The search runs over the minute each meeting could start at. An event from {@code s} to
+ * {@code e} rules out an attendee for every start from {@code s - duration + 1} up to {@code e},
+ * so counting the ruled-out optional attendees per start is a difference array over those ranges.
+ * Each optional attendee's events are merged first so that nobody is counted twice. This takes
+ * O(n log n + minutes in a day) time for n events, however many optional attendees there are.
+ */
+public final class MaximizeOptionalAttendeesQuery implements MeetingTimeFinder {
+
+  @Override
+  public Collection<TimeRange> query(Collection<Event> events, MeetingRequest request) {
+    if (request.getDuration() > TimeRange.WHOLE_DAY.duration()) {
+      return new ArrayList<>();
+    }
+
+    // A meeting of no length still needs a free minute to start in
+    int duration = (int) Math.max(1, request.getDuration());
+    int lastStart = TimeRange.WHOLE_DAY.end() - duration;
+
+    // Differences, per start minute, in how many required and optional attendees are ruled out
+    int[] requiredDiff = new int[lastStart + 2];
+    int[] optionalDiff = new int[lastStart + 2];
+    Collection<String> optional = request.getOptionalAttendees();
+    Map<String, List<TimeRange>> optionalTimes = new HashMap<>();
+    for (Event event : events) {
+      TimeRange when = event.getWhen();
+      if (!Collections.disjoint(event.getAttendees(), request.getAttendees())) {
+        ruleOut(requiredDiff, when.start() - duration + 1, when.end());
+      }
+      for (String attendee : event.getAttendees()) {
+        if (optional.contains(attendee)) {
+          optionalTimes.computeIfAbsent(attendee, key -> new ArrayList<>()).add(when);
+        }
+      }
+    }
+    for (List<TimeRange> times : optionalTimes.values()) {
+      Collections.sort(times, TimeRange.ORDER_BY_START);
+      // Merge the ranges of starts this attendee rules out before counting them
+      int from = Integer.MIN_VALUE;
+      int until = Integer.MIN_VALUE;
+      for (TimeRange time : times) {
+        int start = time.start() - duration + 1;
+        if (start > until) {
+          ruleOut(optionalDiff, from, until);
+          from = start;
+        }
+        until = Math.max(until, time.end());
+      }
+      ruleOut(optionalDiff, from, until);
+    }
+
+    // Fewest optional attendees ruled out at any start the required attendees can all make
+    int[] absent = new int[lastStart + 1];
+    int fewestAbsent = Integer.MAX_VALUE;
+    int required = 0;
+    int optionalAbsent = 0;
+    for (int start = 0; start <= lastStart; start++) {
+      required += requiredDiff[start];
+      optionalAbsent += optionalDiff[start];
+      absent[start] = required > 0 ? -1 : optionalAbsent;
+      if (required == 0) {
+        fewestAbsent = Math.min(fewestAbsent, optionalAbsent);
+      }
+    }
+
+    // Each run of best starts becomes one range, from its first start to the end of its last
+    List<TimeRange> availableTimes = new ArrayList<>();
+    int runStart = -1;
+    for (int start = 0; start <= lastStart + 1; start++) {
+      boolean best = start <= lastStart && absent[start] == fewestAbsent;
+      if (best && runStart < 0) {
+        runStart = start;
+      } else if (!best && runStart >= 0) {
+        availableTimes.add(TimeRange.fromStartEnd(runStart, start - 1 + duration, false));
+        runStart = -1;
+      }
+    }
+    return availableTimes;
+  }
+
+  /*
+   * Adds one to the count for every start from {@code from} up to but not including
+   * {@code until}, clamped to the starts there are.
+   */
+  private static void ruleOut(int[] diff, int from, int until) {
+    from = Math.max(0, from);
+    until = Math.min(diff.length - 1, until);
+    if (from < until) {
+      diff[from]++;
+      diff[until]--;
+    }
+  }
+}
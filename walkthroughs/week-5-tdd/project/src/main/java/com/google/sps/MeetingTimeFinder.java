@@ -0,0 +1,30 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Collection;
+
+/**
+ * Finds the times in a day that a new meeting can be held around the events already scheduled.
+ */
+public interface MeetingTimeFinder {
+
+  /**
+   * Returns every free time range, in chronological order, that is at least as long as the
+   * {@code request} and where none of its attendees has an event. If the request has optional
+   * attendees, they are considered as well unless that leaves no time at all.
+   */
+  Collection<TimeRange> query(Collection<Event> events, MeetingRequest request);
+}
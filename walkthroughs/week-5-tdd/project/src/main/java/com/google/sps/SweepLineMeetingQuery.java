@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@link MeetingTimeFinder} that sorts the busy times of the attendees once and sweeps across the
+ * day, merging overlapping events and keeping the gaps between them that are long enough. This
+ * takes O(n log n) time for n events, where {@link FindMeetingQuery} rescans its list of free
+ * times for every event.
+ *
+ * <p>The sweep keeps separate track of when the required attendees and when everyone is busy, so
+ * the times for everyone and the fallback for the required attendees alone come out of one pass.
+ */
+public final class SweepLineMeetingQuery implements MeetingTimeFinder {
+
+  @Override
+  public Collection<TimeRange> query(Collection<Event> events, MeetingRequest request) {
+    if (request.getDuration() > TimeRange.WHOLE_DAY.duration()) {
+      return new ArrayList<>();
+    }
+
+    Collection<String> required = request.getAttendees();
+    Collection<String> optional = request.getOptionalAttendees();
+    List<Busy> busyTimes = new ArrayList<>();
+    for (Event event : events) {
+      TimeRange when = event.getWhen();
+      if (!Collections.disjoint(event.getAttendees(), required)) {
+        busyTimes.add(new Busy(when.start(), when.end(), /* required= */ true));
+      } else if (!Collections.disjoint(event.getAttendees(), optional)) {
+        busyTimes.add(new Busy(when.start(), when.end(), /* required= */ false));
+      }
+    }
+    return findFreeTimes(busyTimes, request.getDuration());
+  }
+
+  /*
+   * Returns the free times of at least {@code duration} minutes for everyone, or for the required
+   * attendees alone if that leaves none, given the busy times of all the attendees. Sorts
+   * {@code busyTimes} in place.
+   */
+  static List<TimeRange> findFreeTimes(List<Busy> busyTimes, long duration) {
+    Collections.sort(busyTimes, Busy.ORDER_BY_START);
+
+    // Everything before a {@code freeFrom} is taken by an event seen so far
+    List<TimeRange> everyoneFree = new ArrayList<>();
+    List<TimeRange> requiredFree = new ArrayList<>();
+    int everyoneFreeFrom = TimeRange.START_OF_DAY;
+    int requiredFreeFrom = TimeRange.START_OF_DAY;
+    for (Busy busy : busyTimes) {
+      addIfLongEnough(everyoneFree, everyoneFreeFrom, busy.start, duration);
+      everyoneFreeFrom = Math.max(everyoneFreeFrom, busy.end);
+      if (busy.required) {
+        addIfLongEnough(requiredFree, requiredFreeFrom, busy.start, duration);
+        requiredFreeFrom = Math.max(requiredFreeFrom, busy.end);
+      }
+    }
+    addIfLongEnough(everyoneFree, everyoneFreeFrom, TimeRange.WHOLE_DAY.end(), duration);
+    addIfLongEnough(requiredFree, requiredFreeFrom, TimeRange.WHOLE_DAY.end(), duration);
+
+    // Without optional attendees the two lists are the same
+    return everyoneFree.isEmpty() ? requiredFree : everyoneFree;
+  }
+
+  private static void addIfLongEnough(List<TimeRange> freeTimes, int start, int end,
+      long duration) {
+    if (end > start && end - start >= duration) {
+      freeTimes.add(TimeRange.fromStartEnd(start, end, false));
+    }
+  }
+
+  /** A time someone is busy, and whether that someone is a required attendee. */
+  static final class Busy {
+    static final Comparator<Busy> ORDER_BY_START = new Comparator<Busy>() {
+      @Override
+      public int compare(Busy a, Busy b) {
+        return Integer.compare(a.start, b.start);
+      }
+    };
+
+    final int start;
+    final int end;
+    final boolean required;
+
+    Busy(int start, int end, boolean required) {
+      this.start = start;
+      this.end = end;
+      this.required = required;
+    }
+  }
+}
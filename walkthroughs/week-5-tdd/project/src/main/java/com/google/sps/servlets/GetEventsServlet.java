@@ -15,6 +15,7 @@
 package com.google.sps.servlets;
 
 import com.google.sps.Events;
+import com.google.sps.JsonCodec;
 import com.google.gson.Gson;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
@@ -26,7 +27,7 @@ import javax.servlet.http.HttpServletResponse;
 public class GetEventsServlet extends HttpServlet {
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Gson gson = new Gson();
+    Gson gson = JsonCodec.GSON;
     String jsonResponse = gson.toJson(Events.events);
 
     // Send the JSON back as the response
@@ -14,9 +14,15 @@
 
 package com.google.sps.servlets;
 
+import com.google.sps.AttendeeBusyIndex;
+import com.google.sps.BusyMaskIndex;
 import com.google.sps.Events;
 import com.google.sps.FindMeetingQuery;
+import com.google.sps.JsonCodec;
+import com.google.sps.MaximizeOptionalAttendeesQuery;
 import com.google.sps.MeetingRequest;
+import com.google.sps.MeetingTimeFinder;
+import com.google.sps.SweepLineMeetingQuery;
 import com.google.sps.TimeRange;
 import com.google.gson.Gson;
 import java.io.IOException;
@@ -29,17 +35,28 @@ import javax.servlet.http.HttpServletResponse;
 
 @WebServlet("/query")
 public class QueryServlet extends HttpServlet {
+
+  // "bitset" for BusyMaskIndex, "index" for AttendeeBusyIndex, "sweep" for SweepLineMeetingQuery
+  // or "scan" for the original FindMeetingQuery
+  private static final String ENGINE = System.getProperty("meetings.engine", "bitset");
+
+  // The events never change, so they are indexed once and shared by every request
+  private static final AttendeeBusyIndex INDEX =
+      new AttendeeBusyIndex(Arrays.asList(Events.events));
+  private static final BusyMaskIndex MASKS = new BusyMaskIndex(Arrays.asList(Events.events));
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Gson gson = new Gson();
+    Gson gson = JsonCodec.GSON;
 
     // Convert the JSON to an instance of MeetingRequest.
     MeetingRequest meetingRequest = gson.fromJson(request.getReader(), MeetingRequest.class);
 
     // Find the possible meeting times.
-    FindMeetingQuery findMeetingQuery = new FindMeetingQuery();
-    Collection<TimeRange> answer =
-        findMeetingQuery.query(Arrays.asList(Events.events), meetingRequest);
+    // With ?optional=maximize, keep as many optional attendees as can come instead of all or none
+    Collection<TimeRange> answer = "maximize".equals(request.getParameter("optional"))
+        ? query(new MaximizeOptionalAttendeesQuery(), meetingRequest)
+        : findMeetingTimes(meetingRequest);
 
     // Convert the times to JSON
     String jsonResponse = gson.toJson(answer);
@@ -48,4 +65,21 @@ public class QueryServlet extends HttpServlet {
     response.setContentType("application/json");
     response.getWriter().println(jsonResponse);
   }
+
+  private static Collection<TimeRange> findMeetingTimes(MeetingRequest request) {
+    switch (ENGINE) {
+      case "scan":
+        return query(new FindMeetingQuery(), request);
+      case "sweep":
+        return query(new SweepLineMeetingQuery(), request);
+      case "index":
+        return INDEX.query(request);
+      default:
+        return MASKS.query(request);
+    }
+  }
+
+  private static Collection<TimeRange> query(MeetingTimeFinder finder, MeetingRequest request) {
+    return finder.query(Arrays.asList(Events.events), request);
+  }
 }
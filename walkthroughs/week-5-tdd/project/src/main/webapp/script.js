@@ -32,8 +32,9 @@ function sendMeetingRequest() {
   // Create the request to send to the server using the data we collected from
   // the web form.
   const meetingRequest = new MeetingRequest(duration, attendees, optionalAttendees);
+  const maximizeOptional = document.getElementById('maximize-optional').checked;
 
-  queryServer(meetingRequest).then((timeRanges) => {
+  queryServer(meetingRequest, maximizeOptional).then((timeRanges) => {
     updateResultsOnPage(timeRanges);
   });
 }
@@ -55,11 +56,14 @@ function updateResultsOnPage(timeRanges) {
 }
 
 /**
- * Sends the meeting request to the server and get back the time ranges.
+ * Sends the meeting request to the server and get back the time ranges. If
+ * maximizeOptional is true, the server returns the times that suit the most
+ * optional attendees rather than dropping them all when they cannot all come.
  */
-function queryServer(meetingRequest) {
+function queryServer(meetingRequest, maximizeOptional) {
   const json = JSON.stringify(meetingRequest);
-  return fetch('/query', {method: 'POST', body: json})
+  const url = maximizeOptional ? '/query?optional=maximize' : '/query';
+  return fetch(url, {method: 'POST', body: json})
       .then((response) => {
         return response.json();
       })
@@ -19,14 +19,16 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.junit.runners.JUnit4;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
-/** */
-@RunWith(JUnit4.class)
+/** Runs every case against each {@link MeetingTimeFinder}, which must all agree. */
+@RunWith(Parameterized.class)
 public final class FindMeetingQueryTest {
   private static final Collection<Event> NO_EVENTS = Collections.emptySet();
   private static final Collection<String> NO_ATTENDEES = Collections.emptySet();
@@ -34,6 +36,7 @@ public final class FindMeetingQueryTest {
   // Some people that we can use in our tests.
   private static final String PERSON_A = "Person A";
   private static final String PERSON_B = "Person B";
+  private static final String PERSON_C = "Person C";
 
   // All dates are the first day of the year 2020.
   private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
@@ -49,11 +52,27 @@ public final class FindMeetingQueryTest {
   private static final int DURATION_1_HOUR = 60;
   private static final int DURATION_2_HOUR = 120;
 
-  private FindMeetingQuery query;
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> engines() {
+    return Arrays.asList(new Object[][] {
+        {"FindMeetingQuery", (Supplier<MeetingTimeFinder>) FindMeetingQuery::new},
+        {"SweepLineMeetingQuery", (Supplier<MeetingTimeFinder>) SweepLineMeetingQuery::new},
+        {"AttendeeBusyIndex", (Supplier<MeetingTimeFinder>) () ->
+            (events, request) -> new AttendeeBusyIndex(events).query(request)},
+        {"BusyMaskIndex", (Supplier<MeetingTimeFinder>) () ->
+            (events, request) -> new BusyMaskIndex(events).query(request)}});
+  }
+
+  private final Supplier<MeetingTimeFinder> engine;
+  private MeetingTimeFinder query;
+
+  public FindMeetingQueryTest(String name, Supplier<MeetingTimeFinder> engine) {
+    this.engine = engine;
+  }
 
   @Before
   public void setUp() {
-    query = new FindMeetingQuery();
+    query = engine.get();
   }
 
   @Test
@@ -270,5 +289,54 @@ public final class FindMeetingQueryTest {
 
     Assert.assertEquals(expected, actual);
   }
-}
 
+  @Test
+  public void optionalAttendeeIsConsidered() {
+    // Person C is optional and busy all morning, so only the afternoon works for everyone.
+    //
+    // Events  : |-----C-----|  |--A--|
+    // Day     : |---------------------------|
+    // Options :              |1|       |-2--|
+
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0900AM, false),
+            Arrays.asList(PERSON_C)),
+        new Event("Event 2", TimeRange.fromStartDuration(TIME_0930AM, DURATION_30_MINUTES),
+            Arrays.asList(PERSON_A)));
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+    request.addOptionalAttendee(PERSON_C);
+
+    Collection<TimeRange> actual = query.query(events, request);
+    Collection<TimeRange> expected =
+        Arrays.asList(TimeRange.fromStartEnd(TIME_0900AM, TIME_0930AM, false),
+            TimeRange.fromStartEnd(TIME_1000AM, TimeRange.END_OF_DAY, true));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void optionalAttendeeIgnoredWhenNoTimeFitsEveryone() {
+    // Person C is optional and busy all day, so the options are the ones for person A alone.
+    //
+    // Events  : |--------------C--------------|
+    //                  |--A--|
+    // Day     : |-----------------------------|
+    // Options : |--1--|       |------2--------|
+
+    Collection<Event> events = Arrays.asList(
+        new Event("Event 1", TimeRange.WHOLE_DAY, Arrays.asList(PERSON_C)),
+        new Event("Event 2", TimeRange.fromStartDuration(TIME_0800AM, DURATION_30_MINUTES),
+            Arrays.asList(PERSON_A)));
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+    request.addOptionalAttendee(PERSON_C);
+
+    Collection<TimeRange> actual = query.query(events, request);
+    Collection<TimeRange> expected =
+        Arrays.asList(TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+            TimeRange.fromStartEnd(TIME_0830AM, TimeRange.END_OF_DAY, true));
+
+    Assert.assertEquals(expected, actual);
+  }
+}
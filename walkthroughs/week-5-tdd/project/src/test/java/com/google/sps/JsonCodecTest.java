@@ -0,0 +1,77 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class JsonCodecTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+
+  private static final int TIME_0830AM = TimeRange.getTimeInMinutes(8, 30);
+  private static final int DURATION_30_MINUTES = 30;
+
+  @Test
+  public void timeRangeUsesScriptFieldNames() {
+    String actual =
+        JsonCodec.GSON.toJson(TimeRange.fromStartDuration(TIME_0830AM, DURATION_30_MINUTES));
+    String expected = "{\"start\":510,\"duration\":30}";
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void eventUsesScriptFieldNames() {
+    Event event = new Event("Event 1",
+        TimeRange.fromStartDuration(TIME_0830AM, DURATION_30_MINUTES), Arrays.asList(PERSON_A));
+
+    String actual = JsonCodec.GSON.toJson(event);
+    String expected =
+        "{\"title\":\"Event 1\",\"when\":{\"start\":510,\"duration\":30},"
+            + "\"attendees\":[\"Person A\"]}";
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void meetingRequestAcceptsDurationAsString() {
+    MeetingRequest request = JsonCodec.GSON.fromJson(
+        "{\"attendees\":[\"Person A\"],\"optional_attendees\":[\"Person B\"],\"duration\":\"30\"}",
+        MeetingRequest.class);
+
+    Assert.assertEquals(DURATION_30_MINUTES, request.getDuration());
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList(PERSON_A)), new HashSet<>(request.getAttendees()));
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList(PERSON_B)), new HashSet<>(request.getOptionalAttendees()));
+  }
+
+  @Test
+  public void meetingRequestWithoutListsHasNoAttendees() {
+    MeetingRequest request = JsonCodec.GSON.fromJson("{\"duration\":30}", MeetingRequest.class);
+
+    Assert.assertEquals(Collections.emptySet(), new HashSet<>(request.getAttendees()));
+    Assert.assertEquals(Collections.emptySet(), new HashSet<>(request.getOptionalAttendees()));
+  }
+}